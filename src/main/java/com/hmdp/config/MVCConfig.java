@@ -1,7 +1,15 @@
 package com.hmdp.config;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.interceptor.AdminInterceptor;
 import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshInterceptor;
+import com.hmdp.interceptor.ResponseCacheInterceptor;
+import com.hmdp.interceptor.SeckillAdmissionInterceptor;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.ResponseCache;
+import com.hmdp.utils.SeckillAdmission;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
@@ -9,6 +17,8 @@ import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Configuration
 @EnableWebMvc
@@ -17,6 +27,19 @@ public class MVCConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private ResponseCache responseCache;
+
+    // 允许访问/admin/**运维接口的用户id，逗号分隔
+    @Value("${hmdp.admin.user-ids:}")
+    private String adminUserIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor())
@@ -30,8 +53,23 @@ public class MVCConfig implements WebMvcConfigurer {
                         "/voucher/**"
                 )
                 .order(1);
-        registry.addInterceptor(new RefreshInterceptor(stringRedisTemplate))
+        registry.addInterceptor(new RefreshInterceptor(stringRedisTemplate, cacheMetrics))
                 .addPathPatterns("/**")
                 .order(0);    // 全局拦截器，同时设置优先级
+        registry.addInterceptor(new AdminInterceptor(parseIds(adminUserIds)))
+                .addPathPatterns("/admin/**")
+                .order(2);    // 登录校验之后再校验运维权限
+        registry.addInterceptor(new SeckillAdmissionInterceptor(seckillAdmission))
+                .addPathPatterns("/voucher-order/seckill/**")
+                .order(2);    // 登录校验之后再做准入控制
+        registry.addInterceptor(new ResponseCacheInterceptor(responseCache))
+                .addPathPatterns("/shop/*")
+                .order(3);    // 命中时直接写出响应体，不进入controller
+    }
+
+    private static Set<Long> parseIds(String ids) {
+        return StrUtil.split(ids, ',', true, true).stream()
+                .map(Long::valueOf)
+                .collect(Collectors.toSet());
     }
 }
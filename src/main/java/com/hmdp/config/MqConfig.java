@@ -1,9 +1,13 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.SystemConstants;
+import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -19,4 +23,28 @@ public class MqConfig {
     public Queue OrderSaveQueue() {
         return new Queue(SystemConstants.SECKILL_VOUCHER_SAVE_QUEUE);
     }
+
+    @Bean
+    public Queue OrderSaveDeadLetterQueue() {
+        return new Queue(SystemConstants.SECKILL_VOUCHER_SAVE_DLQ);
+    }
+
+    /**
+     * 批量消费的监听容器：凑满batchSize条或者等待receiveTimeout后把整批交给监听方法，
+     * 监听方法正常返回后整批ack
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(SystemConstants.SECKILL_ORDER_BATCH_SIZE);
+        // 预取数量不能小于批大小，否则永远凑不满一批
+        factory.setPrefetchCount(SystemConstants.SECKILL_ORDER_BATCH_SIZE);
+        factory.setReceiveTimeout(SystemConstants.SECKILL_ORDER_BATCH_TIMEOUT);
+        factory.setAcknowledgeMode(AcknowledgeMode.AUTO);
+        return factory;
+    }
 }
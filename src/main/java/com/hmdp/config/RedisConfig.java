@@ -1,10 +1,18 @@
 package com.hmdp.config;
 
+import com.hmdp.service.impl.ShopTypeServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SoldOutRegistry;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 @Configuration
 public class RedisConfig {  // 推荐使用这种配置方法
@@ -14,4 +22,23 @@ public class RedisConfig {  // 推荐使用这种配置方法
         config.useSingleServer().setAddress("redis://47.121.197.219:6379");
         return Redisson.create(config);
     }
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       SoldOutRegistry soldOutRegistry,
+                                                                       CacheClient cacheClient,
+                                                                       IdBloomFilter idBloomFilter,
+                                                                       ShopTypeServiceImpl shopTypeService) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 售罄标记在节点间同步
+        container.addMessageListener(soldOutRegistry, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+        // 一级缓存失效消息
+        container.addMessageListener(cacheClient, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        // 布隆过滤器新增的id
+        container.addMessageListener(idBloomFilter, new ChannelTopic(RedisConstants.BLOOM_ADD_CHANNEL));
+        // 商户类型的新版本号
+        container.addMessageListener(shopTypeService, new ChannelTopic(RedisConstants.CACHE_SHOP_TYPE_CHANNEL));
+        return container;
+    }
 }
@@ -0,0 +1,48 @@
+package com.hmdp.config;
+
+import com.hmdp.dto.Result;
+import com.hmdp.interceptor.ResponseCacheInterceptor;
+import com.hmdp.utils.ResponseCache;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * ResponseCacheInterceptor未命中的请求，在响应写出前保存序列化好的响应体，只缓存成功的结果
+ */
+@ControllerAdvice
+public class ResponseCacheAdvice implements ResponseBodyAdvice<Object> {
+
+    @Resource
+    private ResponseCache responseCache;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return Result.class.isAssignableFrom(returnType.getParameterType());
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (!(request instanceof ServletServerHttpRequest) || !(body instanceof Result)) {
+            return body;
+        }
+        HttpServletRequest servletRequest = ((ServletServerHttpRequest) request).getServletRequest();
+        String key = (String) servletRequest.getAttribute(ResponseCacheInterceptor.CACHE_KEY_ATTRIBUTE);
+        if (key == null || !Boolean.TRUE.equals(((Result) body).getSuccess())) {
+            return body;
+        }
+        long generation = (Long) servletRequest.getAttribute(ResponseCacheInterceptor.GENERATION_ATTRIBUTE);
+        responseCache.put(key, generation, body);
+        return body;
+    }
+}
@@ -0,0 +1,92 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.RefreshScheduler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ *  缓存运维接口
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class AdminCacheController {
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private RefreshScheduler refreshScheduler;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    /**
+     * 各个key前缀的命中率、空值命中、锁等待和重建耗时，同样的数据也通过micrometer导出
+     */
+    @GetMapping("stats")
+    public Result stats() {
+        return Result.ok(cacheMetrics.stats());
+    }
+
+    /**
+     * 布隆过滤器的容量和估算的误判率
+     */
+    @GetMapping("bloom")
+    public Result bloom() {
+        return Result.ok(idBloomFilter.stats());
+    }
+
+    /**
+     * 上一个时间窗口探测到的热点key及估算的访问次数
+     */
+    @GetMapping("hotkeys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 启动预热的进度
+     */
+    @GetMapping("warmup")
+    public Result warmup() {
+        return Result.ok(cacheWarmer.progress());
+    }
+
+    /**
+     * 后台重建队列的长度、丢弃和去重次数
+     */
+    @GetMapping("refresh")
+    public Result refresh() {
+        return Result.ok(refreshScheduler.stats());
+    }
+
+    /**
+     * 在数据库中修改商户类型后调用，重建redis中的列表并通知各节点重新加载，返回新的版本号
+     */
+    @PostMapping("shop-type/refresh")
+    public Result refreshShopType() {
+        return Result.ok(shopTypeService.refreshTypeList());
+    }
+}
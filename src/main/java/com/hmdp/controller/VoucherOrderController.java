@@ -3,6 +3,7 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -29,4 +30,14 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVouchers(voucherId);
     }
+
+    /**
+     * 排队模式下查询下单结果
+     * @param orderId 下单时返回的订单id
+     * @return 排队中/成功，失败时返回失败原因
+     */
+    @GetMapping("result/{orderId}")
+    public Result querySeckillResult(@PathVariable("orderId") Long orderId) {
+        return voucherOrderService.querySeckillResult(orderId);
+    }
 }
@@ -0,0 +1,25 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 商户类型列表的不可变快照，同时保存序列化好的Result响应体和对应的强ETag
+ * body直接写入响应，调用方不能修改
+ */
+@Getter
+public class ShopTypeSnapshot {
+    private final long version;
+    private final List<ShopType> types;
+    private final byte[] body;
+    private final String etag;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body, String etag) {
+        this.version = version;
+        this.types = types;
+        this.body = body;
+        this.etag = etag;
+    }
+}
@@ -3,6 +3,7 @@ package com.hmdp.interceptor;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.CacheMetrics;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -19,10 +20,13 @@ public class RefreshInterceptor implements HandlerInterceptor {
 
     private StringRedisTemplate stringRedisTemplate;
 
+    private CacheMetrics.PrefixMetrics tokenMetrics;
+
     // 注意：因为拦截器并非是Spring生成的，需要使用构造器注入依赖
 
-    public RefreshInterceptor(StringRedisTemplate stringRedisTemplate) {
+    public RefreshInterceptor(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.tokenMetrics = cacheMetrics.of(RedisConstants.LOGIN_USER_KEY);
     }
 
     // 实现spring框架中的拦截
@@ -44,8 +48,10 @@ public class RefreshInterceptor implements HandlerInterceptor {
 
         // 3.拦截user不存在的情况
         if (userMap.isEmpty()) {
+            tokenMetrics.recordMiss();
             return true;
         }
+        tokenMetrics.recordL2Hit();
         UserDTO userDTO = new UserDTO();
         userDTO = BeanUtil.fillBeanWithMap(userMap, userDTO, false);
 
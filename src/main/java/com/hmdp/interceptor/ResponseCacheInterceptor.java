@@ -0,0 +1,99 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ResponseCache;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * 响应体缓存拦截器：命中时直接把缓存的字节写入输出流，不再进入controller；
+ * 未命中时在request中记录缓存key，由ResponseCacheAdvice在响应写出前保存
+ */
+public class ResponseCacheInterceptor implements HandlerInterceptor {
+
+    public static final String CACHE_KEY_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".key";
+    public static final String GENERATION_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".generation";
+
+    private ResponseCache responseCache;
+
+    // 注意：因为拦截器并非是Spring生成的，需要使用构造器注入依赖
+
+    public ResponseCacheInterceptor(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!responseCache.isEnabled() || !"GET".equals(request.getMethod())) {
+            return true;
+        }
+        // 1.根据路由模板和路径变量得到缓存key，与业务缓存的key保持一致，失效时一起删除
+        String key = cacheKey(request);
+        if (key == null) {
+            return true;
+        }
+
+        // 2.命中，直接写出
+        ResponseCache.Body body = responseCache.get(key);
+        if (body != null) {
+            write(request, response, body);
+            return false;
+        }
+
+        // 3.未命中，交给controller处理，记录查询开始时的版本
+        request.setAttribute(GENERATION_ATTRIBUTE, responseCache.generation(key));
+        request.setAttribute(CACHE_KEY_ATTRIBUTE, key);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String cacheKey(HttpServletRequest request) {
+        String pattern = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        Map<String, String> variables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (pattern == null || variables == null) {
+            return null;
+        }
+        // 优惠券列表带有实时的秒杀库存，不做响应缓存
+        switch (pattern) {
+            case "/shop/{id}":
+                return key(RedisConstants.CACHE_SHOP_KEY, variables.get("id"));
+            default:
+                return null;
+        }
+    }
+
+    private static String key(String prefix, String id) {
+        // 只缓存合法的数字id，避免任意参数占满缓存
+        if (StrUtil.isBlank(id) || !StrUtil.isNumeric(id)) {
+            return null;
+        }
+        return prefix + Long.parseLong(id);
+    }
+
+    private void write(HttpServletRequest request, HttpServletResponse response, ResponseCache.Body body)
+            throws Exception {
+        byte[] bytes = body.getPlain();
+        if (responseCache.isGzip()) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+            if (body.getGzipped() != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                bytes = body.getGzipped();
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(bytes.length);
+        ServletOutputStream out = response.getOutputStream();
+        out.write(bytes);
+        out.flush();
+    }
+}
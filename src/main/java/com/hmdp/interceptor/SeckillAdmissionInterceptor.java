@@ -0,0 +1,46 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.SeckillAdmission;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 秒杀准入拦截器，令牌不足的请求直接返回，不进入controller
+ */
+public class SeckillAdmissionInterceptor implements HandlerInterceptor {
+
+    private SeckillAdmission seckillAdmission;
+
+    public SeckillAdmissionInterceptor(SeckillAdmission seckillAdmission) {
+        this.seckillAdmission = seckillAdmission;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        Map<String, String> pathVariables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String id = pathVariables == null ? null : pathVariables.get("id");
+        // 非法的id不限流，交给controller的参数绑定返回400
+        if (StrUtil.isBlank(id) || !StrUtil.isNumeric(id) || id.length() > 18) {
+            return true;
+        }
+        Long voucherId = Long.valueOf(id);
+        if (seckillAdmission.tryAcquire(voucherId)) {
+            return true;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail("抢购人数过多，请稍后再试")));
+        return false;
+    }
+}
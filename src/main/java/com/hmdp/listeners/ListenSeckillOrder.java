@@ -2,16 +2,19 @@ package com.hmdp.listeners;
 
 import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.VoucherOrder;
-import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.SystemConstants;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.messaging.Message;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 @Component
 @Slf4j
@@ -21,36 +24,59 @@ public class ListenSeckillOrder {
     private IVoucherOrderService voucherOrderService;
 
     @Resource
-    private ISeckillVoucherService seckillVoucherService;
+    private RabbitTemplate rabbitTemplate;
 
-    @RabbitListener(queues = SystemConstants.SECKILL_VOUCHER_SAVE_QUEUE)
+    /**
+     * 逐条消费，hmdp.seckill.order-batch=true 时不启动
+     */
+    @RabbitListener(queues = SystemConstants.SECKILL_VOUCHER_SAVE_QUEUE,
+            autoStartup = "#{!${hmdp.seckill.order-batch:false}}")
     public void asyncSaveOrder(VoucherOrder voucherOrder) {
         log.info("订单信息为{}", JSONUtil.parse(voucherOrder));
-        createVoucherOrder(voucherOrder);
+        // 一人一单由唯一索引保证，通过代理对象调用，保证事务生效
+        voucherOrderService.createVoucherOrder(voucherOrder);
     }
 
-    @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 2.1 判断一人一单
-        Long voucherId = voucherOrder.getVoucherId();
-        Integer count = voucherOrderService.query().eq("user_id", voucherOrder.getUserId()).eq("voucher_id",
-                voucherId).count();
-        if (count > 0) {
-            log.error("不能重复下单");
-            return;
+    /**
+     * 批量消费，hmdp.seckill.order-batch=true 时启动
+     * 整批在一个事务中落库，失败则回滚并降级为逐条处理，处理完成后整批ack；
+     * 逐条仍然失败的订单重新投递到队列，超过重试次数投递到死信队列，
+     * 重新投递失败时抛出异常，整批nack后重新入队(保存订单是幂等的)
+     */
+    @RabbitListener(queues = SystemConstants.SECKILL_VOUCHER_SAVE_QUEUE,
+            containerFactory = "batchContainerFactory",
+            autoStartup = "${hmdp.seckill.order-batch:false}")
+    public void asyncSaveOrderBatch(List<Message<VoucherOrder>> messages) {
+        log.info("批量保存订单，数量{}", messages.size());
+        try {
+            voucherOrderService.createVoucherOrderBatch(
+                    messages.stream().map(Message::getPayload).collect(Collectors.toList()));
+        } catch (Exception e) {
+            log.error("批量保存订单失败，降级为逐条保存", e);
+            for (Message<VoucherOrder> message : messages) {
+                VoucherOrder voucherOrder = message.getPayload();
+                try {
+                    voucherOrderService.createVoucherOrder(voucherOrder);
+                } catch (Exception ex) {
+                    log.error("保存订单失败:{}", voucherOrder.getId(), ex);
+                    retry(message);
+                }
+            }
         }
+    }
 
-        // 3.减少库存，CAS方案，判断当前的库存是否是之前查询到库存
-        boolean success = seckillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherId).gt("stock", 0)
-                .update();
-        if (!success) {
-            log.error("库存不足");
+    private void retry(Message<VoucherOrder> message) {
+        Integer retried = message.getHeaders().get(SystemConstants.SECKILL_ORDER_RETRY_HEADER, Integer.class);
+        int next = retried == null ? 1 : retried + 1;
+        if (next > SystemConstants.SECKILL_ORDER_MAX_RETRY) {
+            log.error("订单重试{}次仍然失败，投递到死信队列:{}", retried, message.getPayload().getId());
+            rabbitTemplate.convertAndSend(SystemConstants.SECKILL_VOUCHER_SAVE_DLQ, message.getPayload());
+            voucherOrderService.recordSeckillResult(Collections.singletonList(message.getPayload()), "订单保存失败");
             return;
         }
-
-        // 4.创建订单
-        voucherOrderService.save(voucherOrder);
+        rabbitTemplate.convertAndSend(SystemConstants.SECKILL_VOUCHER_SAVE_QUEUE, message.getPayload(), m -> {
+            m.getMessageProperties().setHeader(SystemConstants.SECKILL_ORDER_RETRY_HEADER, next);
+            return m;
+        });
     }
 }
@@ -0,0 +1,249 @@
+package com.hmdp.listeners;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * hmdp.seckill.order-channel=stream 时，从redis stream中消费秒杀订单
+ * 消费者组批量读取，落库后ack并删除消息；其他节点宕机留下的pending消息超时后被认领重新处理，
+ * 投递超过SECKILL_ORDER_MAX_RETRY次仍未落库的消息转入死信stream
+ * 消费者名称默认为 主机名:端口，重启后沿用同一个消费者；长时间空闲且没有pending消息的消费者会被删除
+ */
+@Component
+@Slf4j
+public class StreamSeckillOrder {
+
+    private static final Duration READ_BLOCK = Duration.ofSeconds(2);
+    // pending消息超过该时间未ack，认为原消费者已经宕机
+    private static final Duration CLAIM_IDLE = Duration.ofSeconds(30);
+    // 空闲超过该时间且没有pending消息的消费者，认为节点已经下线
+    private static final Duration CONSUMER_IDLE = Duration.ofHours(1);
+
+    private static final ExecutorService STREAM_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Value("${hmdp.seckill.order-channel:mq}")
+    private String orderChannel;
+
+    @Value("${hmdp.seckill.stream-consumer:}")
+    private String consumerName;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    private volatile boolean running = true;
+
+    @PostConstruct
+    private void init() {
+        if (!"stream".equals(orderChannel)) {
+            return;
+        }
+        if (consumerName.isEmpty()) {
+            consumerName = localHostName() + ":" + serverPort;
+        }
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(key(), RedisConstants.SECKILL_ORDER_STREAM_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // BUSYGROUP，消费者组已经存在
+            log.debug("消费者组已存在:{}", e.getMessage());
+        }
+        STREAM_ORDER_EXECUTOR.submit(new StreamOrderHandler());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        STREAM_ORDER_EXECUTOR.shutdown();
+    }
+
+    private class StreamOrderHandler implements Runnable {
+        @Override
+        public void run() {
+            long lastClaimTime = 0;
+            while (running) {
+                try {
+                    // 1.定期认领其他消费者超时未ack的消息
+                    if (System.currentTimeMillis() - lastClaimTime > CLAIM_IDLE.toMillis()) {
+                        lastClaimTime = System.currentTimeMillis();
+                        claimIdleOrders();
+                        removeIdleConsumers();
+                    }
+                    // 2.XREADGROUP GROUP g1 c COUNT n BLOCK 2000 STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(RedisConstants.SECKILL_ORDER_STREAM_GROUP, consumerName),
+                            StreamReadOptions.empty().count(SystemConstants.SECKILL_ORDER_BATCH_SIZE).block(READ_BLOCK),
+                            StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    if (records == null || records.isEmpty()) {
+                        continue;
+                    }
+                    handleRecords(new ArrayList<>(records));
+                } catch (Exception e) {
+                    log.error("处理stream订单异常", e);
+                }
+            }
+        }
+    }
+
+    private void claimIdleOrders() {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                RedisConstants.SECKILL_ORDER_STREAM_KEY, RedisConstants.SECKILL_ORDER_STREAM_GROUP,
+                Range.unbounded(), SystemConstants.SECKILL_ORDER_BATCH_SIZE);
+        // XPENDING中的投递次数，包含第一次投递
+        Map<RecordId, Long> deliveries = pending.stream()
+                .filter(p -> p.getElapsedTimeSinceLastDelivery().compareTo(CLAIM_IDLE) > 0)
+                .collect(Collectors.toMap(PendingMessage::getId, PendingMessage::getTotalDeliveryCount));
+        if (deliveries.isEmpty()) {
+            return;
+        }
+        RecordId[] ids = deliveries.keySet().toArray(new RecordId[0]);
+        // XCLAIM 只会认领空闲时间仍然超过CLAIM_IDLE的消息，多个节点同时认领时不会重复
+        List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(key(), RedisConstants.SECKILL_ORDER_STREAM_GROUP,
+                        consumerName, CLAIM_IDLE, ids));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        log.info("认领超时未处理的订单{}条", claimed.size());
+        List<MapRecord<String, ?, ?>> retry = new ArrayList<>(claimed.size());
+        List<MapRecord<String, String, String>> dead = new ArrayList<>();
+        for (ByteRecord r : claimed) {
+            MapRecord<String, String, String> record = r.deserialize(
+                    RedisSerializer.string(), RedisSerializer.string(), RedisSerializer.string());
+            if (deliveries.getOrDefault(record.getId(), 0L) > SystemConstants.SECKILL_ORDER_MAX_RETRY) {
+                dead.add(record);
+            } else {
+                retry.add(record);
+            }
+        }
+        if (!dead.isEmpty()) {
+            deadLetter(dead);
+        }
+        if (!retry.isEmpty()) {
+            handleRecords(retry);
+        }
+    }
+
+    /**
+     * 转入死信stream后ack并删除原消息
+     */
+    private void deadLetter(List<MapRecord<String, String, String>> records) {
+        for (MapRecord<String, String, String> record : records) {
+            log.error("订单多次保存失败，转入死信stream:{}", record.getValue());
+            stringRedisTemplate.opsForStream().add(RedisConstants.SECKILL_ORDER_STREAM_DLQ_KEY, record.getValue());
+        }
+        ackAndDelete(records.stream().map(MapRecord::getId).collect(Collectors.toList()));
+        voucherOrderService.recordSeckillResult(records.stream()
+                .map(record -> BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true))
+                .collect(Collectors.toList()), "订单保存失败");
+    }
+
+    /**
+     * 删除已经下线的消费者，只删除没有pending消息的，pending消息由认领流程转移给存活的消费者
+     */
+    private void removeIdleConsumers() {
+        StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(
+                RedisConstants.SECKILL_ORDER_STREAM_KEY, RedisConstants.SECKILL_ORDER_STREAM_GROUP);
+        consumers.forEach(consumer -> {
+            if (!consumerName.equals(consumer.consumerName())
+                    && consumer.pendingCount() == 0
+                    && consumer.idleTimeMs() > CONSUMER_IDLE.toMillis()) {
+                stringRedisTemplate.opsForStream().deleteConsumer(RedisConstants.SECKILL_ORDER_STREAM_KEY,
+                        Consumer.from(RedisConstants.SECKILL_ORDER_STREAM_GROUP, consumer.consumerName()));
+                log.info("删除空闲的stream消费者:{}", consumer.consumerName());
+            }
+        });
+    }
+
+    /**
+     * 整批落库，失败则逐条处理；只ack已经落库或者判定为重复下单的消息，ack之后从stream中删除，
+     * 其余消息留在pending列表中，CLAIM_IDLE之后重新认领处理
+     */
+    private void handleRecords(List<MapRecord<String, ?, ?>> records) {
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, ?, ?> record : records) {
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        List<RecordId> handled = new ArrayList<>(records.size());
+        try {
+            voucherOrderService.createVoucherOrderBatch(orders);
+            records.forEach(record -> handled.add(record.getId()));
+        } catch (Exception e) {
+            log.error("批量保存stream订单失败，降级为逐条保存", e);
+            for (int i = 0; i < orders.size(); i++) {
+                try {
+                    // 正常返回说明已经落库，或者是重复下单/库存不足被拒绝，重试也不会成功
+                    voucherOrderService.createVoucherOrder(orders.get(i));
+                    handled.add(records.get(i).getId());
+                } catch (Exception ex) {
+                    log.error("保存订单失败，等待重试:{}", orders.get(i).getId(), ex);
+                }
+            }
+        }
+        if (!handled.isEmpty()) {
+            ackAndDelete(handled);
+        }
+    }
+
+    /**
+     * 只有一个消费者组，ack之后消息不会再被读取，直接删除，stream不会无限增长
+     */
+    private void ackAndDelete(List<RecordId> ids) {
+        RecordId[] array = ids.toArray(new RecordId[0]);
+        stringRedisTemplate.opsForStream().acknowledge(RedisConstants.SECKILL_ORDER_STREAM_KEY,
+                RedisConstants.SECKILL_ORDER_STREAM_GROUP, array);
+        stringRedisTemplate.opsForStream().delete(RedisConstants.SECKILL_ORDER_STREAM_KEY, array);
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("无法获取主机名，请配置hmdp.seckill.stream-consumer", e);
+        }
+    }
+
+    private static byte[] key() {
+        return RedisConstants.SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8);
+    }
+}
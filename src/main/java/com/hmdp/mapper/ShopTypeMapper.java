@@ -2,6 +2,7 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.cursor.Cursor;
 
 /**
  * <p>
@@ -13,4 +14,8 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ShopTypeMapper extends BaseMapper<ShopType> {
 
+    /**
+     * 按sort顺序流式读取全部商户类型
+     */
+    Cursor<ShopType> scanAll();
 }
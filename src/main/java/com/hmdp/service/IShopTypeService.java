@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -16,4 +17,15 @@ import java.util.List;
 public interface IShopTypeService extends IService<ShopType> {
 
     List<ShopType> queryTypeList();
+
+    /**
+     * 商户类型列表的内存快照，包含序列化好的响应体
+     */
+    ShopTypeSnapshot snapshot();
+
+    /**
+     * 修改商户类型后调用：按数据库重建redis中的列表，再递增版本号通知各节点重新加载
+     * @return 新的版本号
+     */
+    long refreshTypeList();
 }
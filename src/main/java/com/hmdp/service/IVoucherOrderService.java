@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,15 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVouchers(Long voucherId);
 
+    Result querySeckillResult(Long orderId);
+
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    void createVoucherOrderBatch(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 排队模式下更新订单的排队结果
+     * @param flag 落库成功为SECKILL_RESULT_SAVED，否则为失败原因
+     */
+    void recordSeckillResult(List<VoucherOrder> voucherOrders, String flag);
 }
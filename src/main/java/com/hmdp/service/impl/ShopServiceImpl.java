@@ -1,23 +1,47 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.RefreshScheduler;
+import com.hmdp.utils.SystemConstants;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -33,9 +57,25 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private RefreshScheduler refreshScheduler;
+
     @Override
     public Result queryById(Long id) {
         // Shop shop = queryWithoutPassThrough(id);
+        // 本地缓存 + redis两级缓存
         Shop shop = queryWithMutex(id);
         // Shop shop = queryWithLogicExpire(id);
         if (shop == null) return  Result.fail("店铺不存在");
@@ -50,46 +90,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      */
     public Shop queryWithMutex(Long id) {
         if (id < 0) return null;
-        String shopKey = RedisConstants.CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(shopKey);
-        if (StrUtil.isNotBlank(shopJson)) { // 非空直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        // 判断是否是数据库不存在, 我们默认设置为""
-        if (shopJson != null) {return null;}
-
-        // 缓存重建
-        String lockKey = "lock:shop:" + id; // 相当于对每个shop加锁
-        // 1.获取互斥锁
-        Shop shop = null;
-        try {
-            boolean flag = tryLock(lockKey);
-            // 2.失败，休眠，双检策略
-            if (!flag) {
-                String shopRe;
-                while (true) {
-                    TimeUnit.MILLISECONDS.sleep(50);
-                    shopRe = stringRedisTemplate.opsForValue().get(shopKey);
-                    if (shopRe != null) break;
-                }
-                return JSONUtil.toBean(shopRe, Shop.class);
-            }
-            // 3.成功获取锁，读mysql，写redis，释放互斥锁
-            shop = getById(id);
-            if (shop == null) {
-                stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, "",
-                        RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                log.debug("店铺不存在");
-                return null;
-            }
-            stringRedisTemplate.opsForValue().set(shopKey, JSONUtil.toJsonStr(shop),
-                    RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            unlock(lockKey);    // 防止死锁
-        }
-        return shop;
+        // 同一节点上的并发请求合并为一次重建，只有一个线程竞争分布式锁
+        return cacheClient.queryWithMutex(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById,
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     /**
@@ -136,75 +139,45 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
-    private static final ThreadPoolExecutor CACHE_REBUILD_EXECUTOR = new ThreadPoolExecutor(
-            2,
-            5,
-            2L,
-            TimeUnit.SECONDS,
-            new ArrayBlockingQueue<>(3)
-            );
-
     /**
      * 使用逻辑过期来解决缓存击穿问题
      * @param id
      * @return
      */
     public Shop queryWithLogicExpire(Long id) {
-        // 1.默认必然能查询到数据，缓存预热，反序列化Shop信息
+        // 默认必然能查询到数据，缓存预热；过期后交给重建调度器，获取锁失败或者队列已满时直接返回旧数据
         if (id < 0) return null;
-        String shopKey = RedisConstants.CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(shopKey);
-        if (StrUtil.isBlank(shopJson)) {
-            // 数据空直接返回
-            return null;
-        }
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 2.判断数据是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 3.未过期直接返回
-            return shop;
-        }
-
-        // 4.过期，缓存重建
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean lock = tryLock(lockKey);
-        if (!lock) {
-            // 4.1获取互斥锁，如果失败直接返回商户信息
-            return shop;
-        }
-
-        // 4.2成功，启动异步线程，
-        CACHE_REBUILD_EXECUTOR.submit(() -> {
-            // 重建
-            try {
-                this.saveShop2Redis(id, 20L);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                unlock(lockKey);
-            }
-        });
-
-        return shop;
+        return cacheClient.queryWithLogicExpire(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById,
+                20L, TimeUnit.SECONDS);
     }
 
+    /**
+     * 缓存预热：按逻辑过期写入商户，编码方式与CacheClient一致
+     */
     public void saveShop2Redis(Long id, Long expireSecond) {
-        // 1.查询商户
         Shop shop = getById(id);
-        try {
-            Thread.sleep(200);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        cacheClient.setWithLogicExpire(RedisConstants.CACHE_SHOP_KEY + id, shop, expireSecond, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public boolean save(Shop shop) {
+        boolean success = super.save(shop);
+        if (success) {
+            // 新增的id加入布隆过滤器
+            idBloomFilter.add(IdBloomFilter.SHOP, shop.getId());
+            // 所属类型和名称搜索的分页结果发生变化
+            if (shop.getTypeId() != null) {
+                cacheInvalidator.invalidate(RedisConstants.CACHE_SHOP_PAGE_TYPE_KEY + shop.getTypeId());
+            }
+            afterCommit(this::invalidateNamePages);
+            // 加入所属类型的GEO索引
+            Long id = shop.getId();
+            Long typeId = shop.getTypeId();
+            Double x = shop.getX();
+            Double y = shop.getY();
+            afterCommit(() -> syncGeo(id, null, typeId, x, y));
         }
-        // 2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSecond));
-        // 3.写入redis
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id,
-                JSONUtil.toJsonStr(redisData));
+        return success;
     }
 
     @Override
@@ -213,19 +186,264 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     public Result update(Shop shop) {
         Long id = shop.getId();
         if (id == null) {
-            Result.fail("店铺id不能为空");
+            return Result.fail("店铺id不能为空");
         }
+        // 修改类型时新旧两个类型的分页结果都会变化，修改类型或者坐标时需要同步GEO索引
+        boolean moved = shop.getTypeId() != null || shop.getX() != null || shop.getY() != null;
+        Shop old = moved || shop.getName() != null ? getById(id) : null;
+        Long oldTypeId = old == null ? null : old.getTypeId();
         updateById(shop);
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        // 事务提交之后删除缓存，并延迟再删除一次，同时通知其他节点删除本地缓存
+        // 分页缓存只保存id，只有类型或者名称变化时才需要删除
+        List<String> keys = new ArrayList<>();
+        keys.add(RedisConstants.CACHE_SHOP_KEY + id);
+        if (shop.getTypeId() != null && !shop.getTypeId().equals(oldTypeId)) {
+            keys.add(RedisConstants.CACHE_SHOP_PAGE_TYPE_KEY + shop.getTypeId());
+            if (oldTypeId != null) {
+                keys.add(RedisConstants.CACHE_SHOP_PAGE_TYPE_KEY + oldTypeId);
+            }
+        }
+        cacheInvalidator.invalidate(keys);
+        if (shop.getName() != null && (old == null || !shop.getName().equals(old.getName()))) {
+            afterCommit(this::invalidateNamePages);
+        }
+        if (moved && old != null) {
+            // 未修改的字段沿用旧值
+            Long typeId = shop.getTypeId() != null ? shop.getTypeId() : oldTypeId;
+            Double x = shop.getX() != null ? shop.getX() : old.getX();
+            Double y = shop.getY() != null ? shop.getY() : old.getY();
+            afterCommit(() -> syncGeo(id, oldTypeId, typeId, x, y));
+        }
         return Result.ok();
     }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.MINUTES);
-        return BooleanUtil.isTrue(flag);
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        // 不需要按距离排序，分页查询
+        if (x == null || y == null) {
+            return queryShopByType(typeId, current);
+        }
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        int from = (current - 1) * size;
+        int end = current * size;
+        if (from < 0) {
+            return Result.ok(Collections.emptyList());
+        }
+
+        // 1.GEO索引没有完整加载时(预热关闭、key丢失)，后台加载，本次按普通分页查询
+        // 不能只判断索引key是否存在，save写入一个商户就会创建这个key；
+        // 也不能只判断加载标记，索引key被淘汰或删除后标记仍然存在，标记的值为加载时的商户数，不为0时索引key必须存在
+        String key = RedisConstants.SHOP_GEO_KEY + typeId;
+        if (!geoLoaded(typeId, key)) {
+            refreshScheduler.submit(RedisConstants.SHOP_GEO_KEY, key, "lock:" + key,
+                    () -> loadShopGeo(typeId.longValue()));
+            return queryShopByType(typeId, current);
+        }
+
+        // 2.查询附近的商户，按距离升序，取前end条
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(key,
+                new Circle(new Point(x, y),
+                        new Distance(SystemConstants.SHOP_GEO_RADIUS, RedisGeoCommands.DistanceUnit.METERS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs()
+                        .includeDistance()
+                        .sortAscending()
+                        .limit(end));
+        if (results == null || results.getContent().isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content = results.getContent();
+        if (content.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+
+        // 3.截取当前页的id和距离
+        List<Long> ids = new ArrayList<>(size);
+        Map<Long, Double> distances = new HashMap<>(size * 2);
+        content.stream().skip(from).forEach(result -> {
+            Long id = Long.valueOf(result.getContent().getName());
+            ids.add(id);
+            distances.put(id, result.getDistance().getValue());
+        });
+
+        // 4.通过商户缓存批量查询，缓存中的对象是共享的，复制之后再设置距离
+        List<Shop> shops = queryShops(ids).stream()
+                .map(shop -> BeanUtil.copyProperties(shop, Shop.class).setDistance(distances.get(shop.getId())))
+                .collect(Collectors.toList());
+        // 5.索引中残留了已经删除的商户，从索引中移除，下一次查询的分页不再缺少
+        if (shops.size() < ids.size()) {
+            Set<Long> found = shops.stream().map(Shop::getId).collect(Collectors.toSet());
+            String[] missing = ids.stream().filter(id -> !found.contains(id)).map(String::valueOf)
+                    .toArray(String[]::new);
+            log.warn("GEO索引中的商户不存在，从索引中移除:" + key + " " + Arrays.toString(missing));
+            stringRedisTemplate.opsForGeo().remove(key, missing);
+        }
+        return Result.ok(shops);
+    }
+
+    private boolean geoLoaded(Integer typeId, String key) {
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.get((RedisConstants.SHOP_GEO_LOADED_KEY + typeId).getBytes(StandardCharsets.UTF_8));
+            connection.exists(key.getBytes(StandardCharsets.UTF_8));
+            return null;
+        });
+        String loaded = (String) values.get(0);
+        return loaded != null && ("0".equals(loaded) || Boolean.TRUE.equals(values.get(1)));
+    }
+
+    private Result queryShopByType(Integer typeId, Integer current) {
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        // 1.查询当前页的商户id，前几页缓存在redis中
+        List<Long> ids = queryPageIds(RedisConstants.CACHE_SHOP_PAGE_TYPE_KEY, String.valueOf(typeId),
+                current + ":" + size, current, RedisConstants.CACHE_SHOP_PAGE_TTL,
+                () -> query().select("id")
+                        .eq("type_id", typeId)
+                        .orderByAsc("id")
+                        .page(new Page<>(current, size, false))
+                        .getRecords());
+        // 2.通过商户缓存批量查询商户信息
+        return Result.ok(queryShops(ids));
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        String keyword = StrUtil.isBlank(name) ? "" : name;
+        Supplier<List<Shop>> dbQuery = () -> query().select("id")
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .orderByAsc("id")
+                .page(new Page<>(current, size, false))
+                .getRecords();
+        // 过长的关键字一般不会重复搜索，不缓存
+        if (keyword.length() > SystemConstants.CACHE_SHOP_PAGE_NAME_MAX_LENGTH) {
+            return Result.ok(queryShops(toIds(dbQuery.get())));
+        }
+        String version = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_PAGE_NAME_VERSION_KEY);
+        List<Long> ids = queryPageIds(RedisConstants.CACHE_SHOP_PAGE_NAME_KEY,
+                (version == null ? "0" : version) + ":" + keyword, current + ":" + size, current,
+                RedisConstants.CACHE_SHOP_PAGE_NAME_TTL, dbQuery);
+        return Result.ok(queryShops(ids));
+    }
+
+    /**
+     * 名称搜索的结果无法按关键字逐个删除，递增版本号让所有关键字的缓存失效
+     */
+    private void invalidateNamePages() {
+        stringRedisTemplate.opsForValue().increment(RedisConstants.CACHE_SHOP_PAGE_NAME_VERSION_KEY);
+    }
+
+    /**
+     * 查询一页商户id，前CACHE_SHOP_PAGE_MAX页以逗号分隔保存在hash中，整个hash在商户变化时删除
+     */
+    private List<Long> queryPageIds(String keyPrefix, String id, String field, Integer current, Long ttl,
+                                    Supplier<List<Shop>> dbQuery) {
+        if (current < 1 || current > SystemConstants.CACHE_SHOP_PAGE_MAX) {
+            return toIds(dbQuery.get());
+        }
+        String key = keyPrefix + id;
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(keyPrefix);
+        // 1.查询缓存
+        Object cached = stringRedisTemplate.opsForHash().get(key, field);
+        if (cached != null) {
+            metrics.recordL2Hit();
+            String value = (String) cached;
+            return value.isEmpty() ? Collections.emptyList()
+                    : Arrays.stream(value.split(",")).map(Long::valueOf).collect(Collectors.toList());
+        }
+
+        // 2.不存在，查询数据库，空页同样缓存
+        metrics.recordMiss();
+        long begin = System.nanoTime();
+        List<Long> ids = toIds(dbQuery.get());
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        byte[] rawField = field.getBytes(StandardCharsets.UTF_8);
+        byte[] rawValue = ids.stream().map(String::valueOf).collect(Collectors.joining(","))
+                .getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hSet(rawKey, rawField, rawValue);
+            connection.expire(rawKey, TimeUnit.MINUTES.toSeconds(ttl));
+            return null;
+        });
+        metrics.recordRebuild(System.nanoTime() - begin);
+        return ids;
+    }
+
+    /**
+     * 按id顺序批量查询商户，一级缓存和redis都未命中的id一次查询数据库
+     */
+    private List<Shop> queryShops(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Shop> shops = cacheClient.queryBatch(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                        missIds -> listByIds(missIds).stream()
+                                .collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                        RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                .stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (shops.size() < ids.size()) {
+            log.warn("商户不存在，分页结果少于" + ids.size() + "条:" + ids);
+        }
+        return shops;
+    }
+
+    /**
+     * 从数据库加载一个类型所有商户的坐标，写完之后设置加载完成标记，标记的值为商户数
+     * 直接写入索引key，加载期间save/update写入的位置不会被覆盖
+     */
+    private void loadShopGeo(Long typeId) {
+        long begin = System.nanoTime();
+        List<Shop> shops = query().select("id", "x", "y")
+                .eq("type_id", typeId)
+                .isNotNull("x")
+                .isNotNull("y")
+                .list();
+        byte[] key = (RedisConstants.SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < shops.size(); i += SystemConstants.CACHE_WARMUP_BATCH) {
+            List<Shop> batch = shops.subList(i, Math.min(i + SystemConstants.CACHE_WARMUP_BATCH, shops.size()));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Shop shop : batch) {
+                    connection.geoAdd(key, new Point(shop.getX(), shop.getY()),
+                            shop.getId().toString().getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        }
+        stringRedisTemplate.opsForValue().set(RedisConstants.SHOP_GEO_LOADED_KEY + typeId,
+                String.valueOf(shops.size()));
+        cacheMetrics.of(RedisConstants.SHOP_GEO_KEY).recordRebuild(System.nanoTime() - begin);
+    }
+
+    /**
+     * 同步商户在GEO索引中的位置，修改类型时从旧类型的索引中删除
+     */
+    private void syncGeo(Long id, Long oldTypeId, Long typeId, Double x, Double y) {
+        String member = id.toString();
+        if (oldTypeId != null && !oldTypeId.equals(typeId)) {
+            stringRedisTemplate.opsForGeo().remove(RedisConstants.SHOP_GEO_KEY + oldTypeId, member);
+        }
+        if (typeId != null && x != null && y != null) {
+            stringRedisTemplate.opsForGeo().add(RedisConstants.SHOP_GEO_KEY + typeId, new Point(x, y), member);
+        }
+    }
+
+    /**
+     * 在事务中调用时等到事务提交之后再执行，回滚时不执行
+     */
+    private static void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
     }
 
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    private static List<Long> toIds(List<Shop> shops) {
+        return shops.stream().map(Shop::getId).collect(Collectors.toList());
     }
 }
@@ -1,17 +1,32 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheMetrics;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ResponseCache;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -20,21 +35,137 @@ import java.util.stream.Collectors;
  *  服务实现类
  * </p>
  *
+ * 商户类型几乎不变，在内存中保存一份不可变快照和序列化好的响应体；
+ * redis中的版本号变化时重新加载，版本号通过pub/sub通知，并定时检查兜底
+ *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
-public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
+public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType>
+        implements IShopTypeService, MessageListener {
+
+    private static final ScheduledExecutorService SHOP_TYPE_VERSION_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor();
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private ResponseCache responseCache;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    @PostConstruct
+    private void init() {
+        SHOP_TYPE_VERSION_EXECUTOR.scheduleWithFixedDelay(this::checkVersion,
+                SystemConstants.SHOP_TYPE_VERSION_CHECK_SECONDS,
+                SystemConstants.SHOP_TYPE_VERSION_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        SHOP_TYPE_VERSION_EXECUTOR.shutdown();
+    }
+
     @Override
     public List<ShopType> queryTypeList() {
-        String key = "shop:type:list";
+        return snapshot().getTypes();
+    }
+
+    @Override
+    public ShopTypeSnapshot snapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            cacheMetrics.of(RedisConstants.CACHE_SHOP_TYPE_KEY).recordL1Hit();
+            return current;
+        }
+        return reload(-1L);
+    }
+
+    @Override
+    public long refreshTypeList() {
+        // 先重建列表再递增版本号，否则各节点收到新版本后读到的还是redis中的旧列表
+        List<String> types = query().orderByAsc("sort").list()
+                .stream()
+                .map(JSONUtil::toJsonStr)
+                .collect(Collectors.toList());
+        String key = RedisConstants.CACHE_SHOP_TYPE_KEY;
+        if (types.isEmpty()) {
+            stringRedisTemplate.delete(key);
+        } else {
+            // 写入临时key后rename，读取方不会看到只写了一半的列表
+            String tmpKey = key + ":refresh";
+            stringRedisTemplate.delete(tmpKey);
+            stringRedisTemplate.opsForList().rightPushAll(tmpKey, types);
+            stringRedisTemplate.rename(tmpKey, key);
+        }
+        Long version = stringRedisTemplate.opsForValue().increment(RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_SHOP_TYPE_CHANNEL, String.valueOf(version));
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            reload(current.getVersion());
+        }
+        return version == null ? 0L : version;
+    }
+
+    /**
+     * 其他节点修改了商户类型，消息内容为新的版本号
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        long version = Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8));
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && current.getVersion() < version) {
+            reload(current.getVersion());
+        }
+    }
+
+    private void checkVersion() {
+        try {
+            ShopTypeSnapshot current = snapshot;
+            if (current != null && current.getVersion() != currentVersion()) {
+                reload(current.getVersion());
+            }
+        } catch (Exception e) {
+            log.error("检查商户类型版本失败", e);
+        }
+    }
+
+    /**
+     * 重新加载快照，expectedVersion是调用方看到的旧版本，已经被其他线程刷新过则直接返回
+     */
+    private synchronized ShopTypeSnapshot reload(long expectedVersion) {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && current.getVersion() != expectedVersion) {
+            return current;
+        }
+        // 先读版本号再读列表，读取期间版本号变化会在下一次检查时再加载
+        long version = currentVersion();
+        List<ShopType> types = Collections.unmodifiableList(loadTypeList());
+        byte[] body = responseCache.serialize(Result.ok(types));
+        String etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+        ShopTypeSnapshot next = new ShopTypeSnapshot(version, types, body, etag);
+        snapshot = next;
+        return next;
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0L : Long.parseLong(version);
+    }
+
+    private List<ShopType> loadTypeList() {
+        String key = RedisConstants.CACHE_SHOP_TYPE_KEY;
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(key);
 
         List<String> typeList = stringRedisTemplate.opsForList().range(key, 0, -1);
         if (!typeList.isEmpty()) {
+            metrics.recordL2Hit();
             return typeList
                     .stream()
                     .map(o -> JSONUtil.toBean(o, ShopType.class))
@@ -42,6 +173,8 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
         }
 
         // 不存在，查询数据库
+        metrics.recordMiss();
+        long begin = System.nanoTime();
         List<ShopType> shopTypes = query().orderByAsc("sort").list();
 
         // 这里数据库必然存在，回写redis
@@ -50,6 +183,7 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
                         .stream()
                         .map(JSONUtil::toJsonStr)
                         .collect(Collectors.toList()));
+        metrics.recordRebuild(System.nanoTime() - begin);
 
         // 对于商户类型数据，采用内存淘汰策略
         return shopTypes;
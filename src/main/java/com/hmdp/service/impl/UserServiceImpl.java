@@ -11,6 +11,8 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
@@ -42,6 +44,32 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Override
+    public boolean save(User user) {
+        boolean success = super.save(user);
+        if (success) {
+            // 新增的id加入布隆过滤器
+            idBloomFilter.add(IdBloomFilter.USER, user.getId());
+        }
+        return success;
+    }
+
+    @Override
+    public boolean updateById(User user) {
+        boolean success = super.updateById(user);
+        // 昵称和头像缓存在cache:user中供博文列表使用，修改后删除缓存
+        if (success) {
+            cacheInvalidator.invalidate(CACHE_USER_KEY + user.getId());
+        }
+        return success;
+    }
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1. 校验手机号
@@ -1,33 +1,46 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.BooleanUtil;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisIdWorker;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.RingBuffer;
+import com.hmdp.utils.SeckillWindowCache;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.Collections;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -48,19 +61,25 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private IVoucherOrderService voucherOrderService;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdWorker idWorker;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private RabbitTemplate rabbitTemplate;
 
     @Resource
-    private RabbitTemplate rabbitTemplate;
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
 
-    // 保证我们的子线程可以得到当前类的代理对象，从而实现创建订单的业务
-    private IVoucherOrderService proxy;
+    @Resource
+    private SeckillWindowCache seckillWindowCache;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
     static {
@@ -69,93 +88,402 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    private BlockingQueue<VoucherOrder> orderTask = new ArrayBlockingQueue<>(1024 * 1024);
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-    // ExecutorService 实现了
+    private static final DefaultRedisScript<Long> SECKILL_STREAM_SCRIPT;
+    static {
+        SECKILL_STREAM_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_STREAM_SCRIPT.setLocation(new ClassPathResource("seckill_stream.lua"));
+        SECKILL_STREAM_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_SPILL_SCRIPT;
+    static {
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+        SECKILL_SPILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SPILL_SCRIPT.setLocation(new ClassPathResource("seckill_spill.lua"));
+        SECKILL_SPILL_SCRIPT.setResultType(Long.class);
+    }
+
+    // 优惠券的库存分片数，创建后不会变化，本地缓存避免每次请求都查询
+    private final Map<Long, Integer> stockShardsCache = new ConcurrentHashMap<>();
+
+    // 订单落库通道：mq / local(本地分区流水线) / stream(redis stream)
+    @Value("${hmdp.seckill.order-channel:mq}")
+    private String orderChannel;
+
+    // 是否开启排队模式，开启后下单请求立即返回排队凭证
+    @Value("${hmdp.seckill.async-ticket:false}")
+    private boolean asyncTicket;
+
+    private static final ThreadPoolExecutor SECKILL_TICKET_EXECUTOR = new ThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().availableProcessors() * 2,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(SystemConstants.SECKILL_TICKET_QUEUE_SIZE)
+    );
+
+    // 本地流水线分区数，默认为cpu核数
+    @Value("${hmdp.seckill.order-partitions:0}")
+    private int orderPartitions;
+
+    private RingBuffer<PendingOrder>[] orderPartitionQueues;
+    private LongAdder[] orderPartitionProcessed;
+    // 每个分区最近一个订单在队列中等待的时间(ms)
+    private AtomicLongArray orderPartitionLag;
+    private ExecutorService seckillOrderExecutor;
+
     @PostConstruct
+    @SuppressWarnings("unchecked")
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        if (!"local".equals(orderChannel)) {
+            return;
+        }
+        int partitions = orderPartitions > 0 ? orderPartitions : Runtime.getRuntime().availableProcessors();
+        orderPartitionQueues = new RingBuffer[partitions];
+        orderPartitionProcessed = new LongAdder[partitions];
+        orderPartitionLag = new AtomicLongArray(partitions);
+        seckillOrderExecutor = Executors.newFixedThreadPool(partitions);
+        for (int i = 0; i < partitions; i++) {
+            orderPartitionQueues[i] = new RingBuffer<>(SystemConstants.SECKILL_ORDER_PARTITION_CAPACITY);
+            orderPartitionProcessed[i] = new LongAdder();
+            registerPartitionMeters(i);
+            seckillOrderExecutor.submit(new VoucherOrderHandler(i));
+        }
+    }
+
+    private void registerPartitionMeters(int partition) {
+        String tag = String.valueOf(partition);
+        Gauge.builder("seckill.order.partition.depth", orderPartitionQueues[partition], RingBuffer::size)
+                .tag("partition", tag)
+                .register(meterRegistry);
+        Gauge.builder("seckill.order.partition.lag", orderPartitionLag, lag -> lag.get(partition))
+                .tag("partition", tag)
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        FunctionCounter.builder("seckill.order.partition.processed", orderPartitionProcessed[partition], LongAdder::sum)
+                .tag("partition", tag)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (seckillOrderExecutor != null) {
+            seckillOrderExecutor.shutdownNow();
+        }
+        SECKILL_TICKET_EXECUTOR.shutdown();
+    }
+
+    private static class PendingOrder {
+        private final VoucherOrder order;
+        private final long enqueueTime;
+
+        private PendingOrder(VoucherOrder order) {
+            this.order = order;
+            this.enqueueTime = System.currentTimeMillis();
+        }
     }
 
     /**
-     * 该异步任务应该在类创建之后就立即执行
+     * 每个分区一个消费线程，同一个用户的订单总是路由到同一个分区，
+     * 因此同一用户的订单串行处理，不再需要分布式锁
      */
     private class VoucherOrderHandler implements Runnable {
+        private final int partition;
+
+        private VoucherOrderHandler(int partition) {
+            this.partition = partition;
+        }
+
         @Override
         public void run() {
-            while (true) {
+            RingBuffer<PendingOrder> queue = orderPartitionQueues[partition];
+            while (!Thread.currentThread().isInterrupted()) {
+                PendingOrder pending = queue.poll();
+                if (pending == null) {
+                    // 队列为空，短暂休眠
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                    continue;
+                }
+                orderPartitionLag.set(partition, System.currentTimeMillis() - pending.enqueueTime);
                 try {
-                    VoucherOrder order = orderTask.take();// 阻塞方法，等待队头元素
-                    handleVoucherOrder(order);
+                    // 通过代理对象调用，保证事务生效
+                    voucherOrderService.createVoucherOrder(pending.order);
                 } catch (Exception e) {
                     log.error("创建订单异常", e);
+                    recordSeckillResult(Collections.singletonList(pending.order), "订单保存失败");
+                } finally {
+                    orderPartitionProcessed[partition].increment();
                 }
             }
         }
     }
 
-    private void handleVoucherOrder(VoucherOrder order) {
-        Long userId = order.getUserId();
-        String orderLockKey = "lock:order:" + userId;
-
-        RLock lock = redissonClient.getLock(orderLockKey);
-        boolean isLock = lock.tryLock();
-        if (!isLock) {
-            log.error("不能重复下单");
-            return;
+    @Override
+    public Result seckillVouchers(Long voucherId) {
+        // 0.布隆过滤器判断优惠券一定不存在
+        if (!idBloomFilter.mightContain(IdBloomFilter.VOUCHER, voucherId)) {
+            return Result.fail("优惠券不存在");
+        }
+        // 0.本地已经标记售罄，不再访问redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
         }
+        // 0.1 本地时间窗口校验，明显未开始或已结束的请求不访问redis
+        int window = seckillWindowCache.check(voucherId, System.currentTimeMillis());
+        if (window != SeckillWindowCache.IN_WINDOW) {
+            return Result.fail(seckillFailMessage(window));
+        }
+        Long userId = UserHolder.getUser().getId();
+        if (!asyncTicket) {
+            return doSeckill(voucherId, userId, null);
+        }
+
+        // 排队模式：立即返回订单id作为排队凭证，由线程池完成下单，结果通过/voucher-order/result/{orderId}查询
+        // 扣减redis库存成功后记录为ACCEPTED，订单落库之后由落库流程记录为成功
+        long orderId = idWorker.nextId("order");
         try {
-            // 当前线程是子线程，无法通过currentProxy获得代理对象
-            proxy.createVoucherOrder(order);
-        } catch (IllegalStateException e) {
-            throw new RuntimeException(e);
-        } finally {
-            lock.unlock();
+            SECKILL_TICKET_EXECUTOR.execute(() -> {
+                String key = RedisConstants.SECKILL_RESULT_KEY + orderId;
+                Result result;
+                try {
+                    result = doSeckill(voucherId, userId, orderId);
+                } catch (Exception e) {
+                    log.error("排队下单异常:{}", orderId, e);
+                    result = Result.fail("服务器异常");
+                }
+                if (BooleanUtil.isTrue(result.getSuccess())) {
+                    // 订单可能已经落库并写入了成功结果，不能覆盖
+                    stringRedisTemplate.opsForValue().setIfAbsent(key,
+                            userId + ":" + RedisConstants.SECKILL_RESULT_ACCEPTED,
+                            RedisConstants.SECKILL_RESULT_TTL, TimeUnit.MINUTES);
+                } else {
+                    stringRedisTemplate.opsForValue().set(key, userId + ":" + result.getErrorMsg(),
+                            RedisConstants.SECKILL_RESULT_TTL, TimeUnit.MINUTES);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return Result.fail("抢购人数过多，请稍后再试");
         }
+        return Result.ok(orderId);
     }
 
-    @Override
-    public Result seckillVouchers(Long voucherId) {
+    /**
+     * @param orderId 排队模式下已经分配的订单id，为null时下单成功后再生成
+     */
+    private Result doSeckill(Long voucherId, Long userId, Long orderId) {
         // 1.执行lua脚本
         // 1.1 需要参数
-        Long userId = UserHolder.getUser().getId();
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                userId.toString()
-        );
+        int shards = getStockShards(voucherId);
+        boolean streamChannel = "stream".equals(orderChannel);
+        boolean streamWritten = false;
+        Long result;
+        if (shards > 1) {
+            result = seckillWithShards(voucherId, userId, shards);
+        } else if (streamChannel) {
+            // stream模式下订单在lua脚本中直接写入stream，需要提前生成订单id
+            if (orderId == null) {
+                orderId = idWorker.nextId("order");
+            }
+            streamWritten = true;
+            result = stringRedisTemplate.execute(
+                    SECKILL_STREAM_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(),
+                    userId.toString(),
+                    orderId.toString()
+            );
+        } else {
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(),
+                    userId.toString()
+            );
+        }
 
         // 2.判断lua脚本的结果
         // 3.1 !=0返回异常信息
         int flag = result.intValue();
+        if (flag == 1) {
+            soldOutRegistry.markSoldOut(voucherId);
+        }
         if (flag != 0) {
-            return Result.fail(flag == 1 ? "库存不足" : "不能重复下单");
+            return Result.fail(seckillFailMessage(flag));
         }
 
-        // 3.2 ==0保存订单信息到rabbitmq
-        long orderId = redisIdWorker.nextId("order");
+        // 3.2 ==0 stream模式下lua脚本已经写入订单
+        if (streamWritten) {
+            return Result.ok(orderId);
+        }
+
+        // 3.3 保存订单信息到rabbitmq
+        if (orderId == null) {
+            orderId = idWorker.nextId("order");
+        }
         VoucherOrder voucherOrder = new VoucherOrder();
         voucherOrder
                 .setVoucherId(voucherId)
                 .setUserId(userId)
                 .setId(orderId);
+        if ("local".equals(orderChannel) && pipelineSaveOrder(voucherOrder)) {
+            return Result.ok(orderId);
+        }
+        if (streamChannel) {
+            // 分片库存的key分布在不同slot，无法在同一个lua脚本中写入stream
+            Map<String, String> fields = new HashMap<>();
+            fields.put("userId", userId.toString());
+            fields.put("voucherId", voucherId.toString());
+            fields.put("id", orderId.toString());
+            stringRedisTemplate.opsForStream().add(RedisConstants.SECKILL_ORDER_STREAM_KEY, fields);
+            return Result.ok(orderId);
+        }
         rabbitTemplate.convertAndSend(SystemConstants.SECKILL_VOUCHER_SAVE_QUEUE, voucherOrder);
         log.info("发送保存秒杀券订单信息成功:{}",orderId);
         return Result.ok(orderId);
     }
 
+    @Override
+    public Result querySeckillResult(Long orderId) {
+        String value = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_RESULT_KEY + orderId);
+        Long userId = UserHolder.getUser().getId();
+        Map<String, Object> ticket = new HashMap<>();
+        ticket.put("orderId", orderId);
+        // 1.还没有结果，仍在排队
+        if (value == null) {
+            ticket.put("status", "QUEUED");
+            return Result.ok(ticket);
+        }
+        // 2.只能查询自己的排队结果
+        String[] parts = value.split(":", 2);
+        if (!userId.toString().equals(parts[0])) {
+            return Result.fail("订单不存在");
+        }
+        // 3.已经抢到库存，订单还在落库
+        if (RedisConstants.SECKILL_RESULT_ACCEPTED.equals(parts[1])) {
+            ticket.put("status", "ACCEPTED");
+            return Result.ok(ticket);
+        }
+        if (!RedisConstants.SECKILL_RESULT_SAVED.equals(parts[1])) {
+            return Result.fail(parts[1]);
+        }
+        ticket.put("status", "SUCCESS");
+        return Result.ok(ticket);
+    }
+
+    @Override
+    public void recordSeckillResult(List<VoucherOrder> voucherOrders, String flag) {
+        if (!asyncTicket || voucherOrders.isEmpty()) {
+            return;
+        }
+        long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.SECKILL_RESULT_TTL);
+        // 排队模式下所有秒杀订单都有排队凭证，落库流程可能先于排队线程写入结果
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (VoucherOrder order : voucherOrders) {
+                connection.setEx(
+                        (RedisConstants.SECKILL_RESULT_KEY + order.getId()).getBytes(StandardCharsets.UTF_8),
+                        ttl, (order.getUserId() + ":" + flag).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
     /**
-     * 使用线程池 + 阻塞队列实现异步下单
-     * @param voucherOrder
+     * 事务提交之后记录落库成功，回滚时不记录
+     */
+    private void afterCommitSaved(List<VoucherOrder> voucherOrders) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            recordSeckillResult(voucherOrders, RedisConstants.SECKILL_RESULT_SAVED);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                recordSeckillResult(voucherOrders, RedisConstants.SECKILL_RESULT_SAVED);
+            }
+        });
+    }
+
+    /**
+     * lua脚本返回值对应的提示信息
+     */
+    private static String seckillFailMessage(int flag) {
+        switch (flag) {
+            case 1:
+                return "库存不足";
+            case 2:
+                return "不能重复下单";
+            case SeckillWindowCache.NOT_STARTED:
+                return "秒杀尚未开始";
+            case SeckillWindowCache.ENDED:
+                return "秒杀已经结束";
+            default:
+                return "下单失败";
+        }
+    }
+
+    private int getStockShards(Long voucherId) {
+        Integer shards = stockShardsCache.get(voucherId);
+        if (shards != null) {
+            return shards;
+        }
+        String value = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + voucherId);
+        if (value != null) {
+            shards = Integer.valueOf(value);
+        } else if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SECKILL_STOCK_KEY + voucherId))) {
+            shards = 1;
+        } else {
+            // 优惠券还未创建，不缓存
+            return 1;
+        }
+        stockShardsCache.put(voucherId, shards);
+        return shards;
+    }
+
+    /**
+     * 分片库存下单：按userId选择主分片，主分片售罄后依次到相邻分片扣减
+     * 每个分片的扣减都是原子的，所以不会超卖
+     * @return 0:成功 1:库存不足 2:重复下单 4:未开始 5:已结束
      */
-    private void blockingQueueSaveOrder(VoucherOrder voucherOrder) {
-        orderTask.add(voucherOrder);
-        // 抢单完成
+    private Long seckillWithShards(Long voucherId, Long userId, int shards) {
+        int home = (int) (userId % shards);
+        String homeTag = "{" + voucherId + ":" + home + "}";
+        // 1.主分片：一人一单 + 扣减库存
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SHARD_SCRIPT,
+                Arrays.asList(RedisConstants.SECKILL_STOCK_KEY + homeTag, RedisConstants.SECKILL_ORDER_KEY + homeTag,
+                        RedisConstants.SECKILL_WINDOW_KEY + homeTag),
+                userId.toString()
+        );
+        if (result == null || result != 3) {
+            return result;
+        }
+        // 2.主分片售罄，已经占住了下单资格，到相邻分片扣减
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long spill = stringRedisTemplate.execute(
+                    SECKILL_SPILL_SCRIPT,
+                    Collections.singletonList(RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}")
+            );
+            if (spill != null && spill == 0) {
+                return 0L;
+            }
+        }
+        // 3.全部分片售罄，释放下单资格
+        stringRedisTemplate.opsForSet().remove(RedisConstants.SECKILL_ORDER_KEY + homeTag, userId.toString());
+        return 1L;
+    }
 
-        // TODO:4.开启异步任务
-        // 4.1获取代理对象，创建订单是一个事务，需要通过代理对象来实现事务
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
+    /**
+     * 使用线程池 + 分区环形队列实现异步下单，按userId路由分区
+     * @param voucherOrder
+     * @return 分区队列已满时返回false，由调用方降级发送到mq，redis中已扣减的库存不会丢单
+     */
+    private boolean pipelineSaveOrder(VoucherOrder voucherOrder) {
+        int partition = (int) (voucherOrder.getUserId() % orderPartitionQueues.length);
+        return orderPartitionQueues[partition].offer(new PendingOrder(voucherOrder));
     }
 
 //    @Override
@@ -224,12 +552,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 2.1 判断一人一单
+        // 2.1 一人一单：由(user_id, voucher_id)唯一索引保证，insert ignore影响0行说明重复下单
         Long voucherId = voucherOrder.getVoucherId();
-        Integer count = query().eq("user_id", voucherOrder.getUserId()).eq("voucher_id",
-                voucherId).count();
-        if (count > 0) {
+        if (getBaseMapper().insertIgnore(voucherOrder) == 0) {
+            // redis已经保证一人一单，这里一般是同一个订单重复投递，之前已经落库
             log.error("不能重复下单");
+            afterCommitSaved(Collections.singletonList(voucherOrder));
             return;
         }
 
@@ -239,14 +567,66 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .eq("voucher_id", voucherId).gt("stock", 0)
                 .update();
         if (!success) {
+            // 库存不足，回滚已经插入的订单
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             log.error("库存不足");
+            recordSeckillResult(Collections.singletonList(voucherOrder), "库存不足");
             return;
         }
+        afterCommitSaved(Collections.singletonList(voucherOrder));
+    }
 
+    /**
+     * 批量创建订单：一次查询过滤重复下单，每张优惠券一条扣减库存语句，一条多行insert
+     * 任意一步失败整批回滚，由调用方降级为逐条处理
+     * @param voucherOrders 一批订单
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrderBatch(List<VoucherOrder> voucherOrders) {
+        // 1.批次内去重，同一用户同一优惠券只保留第一单
+        Map<String, VoucherOrder> orderMap = new LinkedHashMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            orderMap.putIfAbsent(order.getUserId() + ":" + order.getVoucherId(), order);
+        }
+        // 数据库中已经存在的订单同样视为落库成功
+        afterCommitSaved(voucherOrders);
 
-        // 4.创建订单
-        voucherOrderService.save(voucherOrder);
+        // 2.判断一人一单，过滤掉数据库中已经存在的订单，走(user_id, voucher_id)唯一索引
+        // 并发下仍有漏网的重复订单时，多行insert触发唯一索引冲突，整批回滚后逐条处理
+        Set<Long> userIds = orderMap.values().stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = orderMap.values().stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        List<VoucherOrder> exists = query()
+                .select("user_id", "voucher_id")
+                .in("user_id", userIds)
+                .in("voucher_id", voucherIds)
+                .list();
+        for (VoucherOrder exist : exists) {
+            if (orderMap.remove(exist.getUserId() + ":" + exist.getVoucherId()) != null) {
+                log.error("不能重复下单");
+            }
+        }
+        if (orderMap.isEmpty()) {
+            return;
+        }
+
+        // 3.按优惠券聚合扣减库存，stock = stock - k，库存不足时整批回滚
+        Map<Long, Long> countMap = orderMap.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        countMap.forEach((voucherId, count) -> {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId).ge("stock", count)
+                    .update();
+            if (!success) {
+                throw new IllegalStateException("库存不足, voucherId=" + voucherId);
+            }
+        });
+
+        // 4.多行插入订单
+        getBaseMapper().insertBatch(new ArrayList<>(orderMap.values()));
     }
+
 //    @Transactional
 //    public Result createVoucherOrder(Long voucherId) {
 //        // 2.1 判断一人一单
@@ -7,14 +7,23 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.SoldOutRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_KEY;
 
 /**
  * <p>
@@ -33,6 +42,16 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    // 秒杀库存分片数，1表示不分片
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -41,6 +60,16 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    @Override
+    public boolean save(Voucher voucher) {
+        boolean success = super.save(voucher);
+        if (success) {
+            // 新增的id加入布隆过滤器
+            idBloomFilter.add(IdBloomFilter.VOUCHER, voucher.getId());
+        }
+        return success;
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -55,7 +84,69 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucherService.save(seckillVoucher);
 
         // 保存秒杀卷信息到redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(),
-                voucher.getStock().toString());
+        Map<String, String> window = new HashMap<>();
+        if (voucher.getBeginTime() != null) {
+            window.put("begin", String.valueOf(toEpochMilli(voucher.getBeginTime())));
+        }
+        if (voucher.getEndTime() != null) {
+            window.put("end", String.valueOf(toEpochMilli(voucher.getEndTime())));
+        }
+        if (!window.isEmpty()) {
+            stringRedisTemplate.opsForHash().putAll(SECKILL_WINDOW_KEY + voucher.getId(), window);
+        }
+        if (stockShards <= 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(),
+                    voucher.getStock().toString());
+            return;
+        }
+        saveShardedStock(voucher.getId(), voucher.getStock(), window);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    @Transactional
+    public void addSeckillStock(Long voucherId, Integer count) {
+        // 1.增加数据库库存
+        seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        // 2.增加redis库存，分片时平均分给各个分片
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        if (value == null) {
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, count);
+        } else {
+            int shards = Integer.parseInt(value);
+            for (int i = 0; i < shards; i++) {
+                int shardCount = count / shards + (i < count % shards ? 1 : 0);
+                stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + "{" + voucherId + ":" + i + "}",
+                        shardCount);
+            }
+        }
+        // 3.事务提交之后清除所有节点的售罄标记
+        soldOutRegistry.reset(voucherId);
+    }
+
+    /**
+     * 将库存拆分到多个分片key上，分散热点券在集群中的压力
+     * 分片key为 seckill:stock:{voucherId:i}，余数依次分给前面的分片
+     * 每个分片保存一份时间窗口，保证分片的lua脚本只访问同一个slot
+     */
+    private void saveShardedStock(Long voucherId, int stock, Map<String, String> window) {
+        int base = stock / stockShards;
+        int remainder = stock % stockShards;
+        for (int i = 0; i < stockShards; i++) {
+            int shardStock = base + (i < remainder ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + "{" + voucherId + ":" + i + "}",
+                    String.valueOf(shardStock));
+            if (!window.isEmpty()) {
+                stringRedisTemplate.opsForHash().putAll(SECKILL_WINDOW_KEY + "{" + voucherId + ":" + i + "}", window);
+            }
+        }
+        // 分片数最后写入，读到分片数时各分片库存已经就绪
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(stockShards));
     }
 }
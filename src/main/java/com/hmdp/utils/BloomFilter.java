@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 只存放long类型id的布隆过滤器，位数组可以放在本地，也可以按相同的下标放到redis的bitmap中
+ */
+public class BloomFilter {
+
+    private final long numBits;
+    private final int numHashes;
+    private final AtomicLongArray bits;
+    private final LongAdder insertions = new LongAdder();
+
+    /**
+     * @param expectedInsertions 预计元素个数
+     * @param fpp 期望的误判率
+     * @param local false时不分配本地位数组，只用来计算下标
+     */
+    public BloomFilter(long expectedInsertions, double fpp, boolean local) {
+        // m = -n*ln(p)/(ln2)^2, k = m/n*ln2
+        long m = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, (m + 63) / 64 * 64);
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.bits = local ? new AtomicLongArray((int) (numBits / 64)) : null;
+    }
+
+    /**
+     * id对应的numHashes个位下标，使用两个哈希值组合出k个哈希函数
+     */
+    public long[] indexes(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        long[] indexes = new long[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            indexes[i] = Math.floorMod(h1 + i * h2, numBits);
+        }
+        return indexes;
+    }
+
+    public void put(long id) {
+        for (long index : indexes(id)) {
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+        insertions.increment();
+    }
+
+    public boolean mightContain(long id) {
+        for (long index : indexes(id)) {
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long bitCount() {
+        long count = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            count += Long.bitCount(bits.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * 按照当前置位的比例估算误判率: (置位数/总位数)^k
+     */
+    public double estimatedFpp(long bitCount) {
+        return Math.pow((double) bitCount / numBits, numHashes);
+    }
+
+    public long getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    public long getInsertions() {
+        return insertions.sum();
+    }
+
+    void recordInsertion() {
+        insertions.increment();
+    }
+
+    // murmur3的fmix64
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e87ecL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -1,29 +1,159 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.hmdp.entity.Shop;
+import com.hmdp.utils.codec.CacheCodec;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Component
 @Slf4j
-public class CacheClient {
+public class CacheClient implements MessageListener {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private RefreshScheduler refreshScheduler;
+
+    @Resource
+    private ResponseCache responseCache;
+
+    @Resource
+    private List<CacheCodec> codecs;
+
+    // 写入缓存使用的编码方式，json/binary
+    @Value("${hmdp.cache.codec:json}")
+    private String codecName;
+
+    private CacheCodec codec;
+
+    // 过期时间的随机抖动比例，0.1表示在原过期时间上随机增加0~10%，避免同一批写入的key同时过期
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    // XFetch提前刷新的beta，越大越早刷新，0表示关闭
+    @Value("${hmdp.cache.xfetch-beta:0}")
+    private double xfetchBeta;
+
+    // 数据库不存在的数据在redis中保存为空值
+    private static final byte[] EMPTY = new byte[0];
+
+    // 本地缓存中表示数据库不存在的对象，防止缓存穿透
+    private static final Object NULL_VALUE = new Object();
+
+    // 一级缓存：按key前缀划分的本地缓存，保存反序列化之后的对象
+    private final Map<String, Cache<String, Object>> localCaches = new ConcurrentHashMap<>();
+    // 没有开启一级缓存的key前缀，探测到的热点key在本地保存一份短时间的副本
+    private final Cache<String, Object> hotKeyCache = Caffeine.newBuilder()
+            .maximumSize(SystemConstants.HOT_KEY_TOP_K * 2L)
+            .expireAfterWrite(SystemConstants.HOT_KEY_LOCAL_TTL, TimeUnit.SECONDS)
+            .build();
+    // key前缀对应的布隆过滤器，不存在的id直接返回null
+    private final Map<String, String> bloomFilters = new ConcurrentHashMap<>();
+    // 合并同一个节点上对同一个key的并发重建
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @PostConstruct
+    private void init() {
+        codec = codecs.stream()
+                .filter(c -> c.name().equals(codecName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("未知的缓存编码方式:" + codecName));
+        registerLocalCache(RedisConstants.CACHE_SHOP_KEY,
+                RedisConstants.CACHE_SHOP_LOCAL_SIZE, RedisConstants.CACHE_SHOP_LOCAL_TTL, TimeUnit.SECONDS);
+        registerBloomFilter(RedisConstants.CACHE_SHOP_KEY, IdBloomFilter.SHOP);
+        registerBloomFilter(RedisConstants.CACHE_USER_KEY, IdBloomFilter.USER);
+    }
+
+    /**
+     * 为某个key前缀开启一级缓存，淘汰策略为W-TinyLFU
+     * @param keyPrefix key前缀
+     * @param maximumSize 最大条目数
+     * @param ttl 本地缓存的过期时间，跨节点失效消息丢失时的兜底
+     */
+    public void registerLocalCache(String keyPrefix, long maximumSize, long ttl, TimeUnit unit) {
+        Cache<String, Object> cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl, unit)
+                .build();
+        localCaches.put(keyPrefix, cache);
+        cacheMetrics.of(keyPrefix).bindLocalSize(cache::estimatedSize);
+    }
+
+    /**
+     * 为某个key前缀开启布隆过滤器校验
+     * @param filterName IdBloomFilter中的过滤器名称
+     */
+    public void registerBloomFilter(String keyPrefix, String filterName) {
+        bloomFilters.put(keyPrefix, filterName);
+    }
+
     public void set(String key, Object obj, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(obj), time, unit);
+        setBytes(key, codec.encode(obj), jitter(time, unit), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 批量写入，一个pipeline发送，每个key的过期时间分别抖动
+     */
+    public void setAll(Map<String, ?> values, Long time, TimeUnit unit) {
+        Map<byte[], byte[]> encoded = new LinkedHashMap<>(values.size());
+        values.forEach((key, obj) -> encoded.put(key.getBytes(StandardCharsets.UTF_8), codec.encode(obj)));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            encoded.forEach((key, value) -> connection.set(key, value,
+                    Expiration.milliseconds(jitter(time, unit)), RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+    }
+
+    /**
+     * 写入数据的同时写入本次重建的耗时，供XFetch判断是否提前刷新
+     * @param deltaMillis 查询数据库的耗时
+     */
+    private void setWithDelta(String key, Object obj, Long time, TimeUnit unit, long deltaMillis) {
+        Expiration expiration = Expiration.milliseconds(jitter(time, unit));
+        byte[] value = codec.encode(obj);
+        byte[] delta = String.valueOf(deltaMillis).getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.set(key.getBytes(StandardCharsets.UTF_8), value,
+                    expiration, RedisStringCommands.SetOption.upsert());
+            connection.set(deltaKey(key), delta, expiration, RedisStringCommands.SetOption.upsert());
+            return null;
+        });
     }
 
     public void setWithLogicExpire(String key, Object obj, Long time, TimeUnit unit) {
@@ -31,47 +161,87 @@ public class CacheClient {
         redisData.setData(obj);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
 
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(obj));
+        setBytes(key, codec.encodeWithExpire(redisData), null, null);
+    }
+
+    /**
+     * 删除缓存和XFetch的重建耗时，同时通知所有节点删除一级缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.del(key.getBytes(StandardCharsets.UTF_8), deltaKey(key)));
+        invalidateLocal(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量删除缓存和XFetch的重建耗时，DEL和失效通知在同一个pipeline中发送
+     */
+    public void deleteAll(Collection<String> keys) {
+        keys.forEach(this::invalidateLocal);
+        byte[] channel = RedisConstants.CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[][] rawKeys = keys.stream()
+                    .map(key -> key.getBytes(StandardCharsets.UTF_8))
+                    .toArray(byte[][]::new);
+            connection.del(rawKeys);
+            connection.del(keys.stream().map(CacheClient::deltaKey).toArray(byte[][]::new));
+            for (byte[] rawKey : rawKeys) {
+                connection.publish(channel, rawKey);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8));
     }
 
     public <R, ID> R queryWithoutPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
                                              Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断id一定不存在，直接返回
+        if (rejectByBloomFilter(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
 
+        // 0.查询一级缓存
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+
         // 1.查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
 
         // 2.存在，直接返回即可
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
+        if (bytes != null && bytes.length > 0) {
+            R r = decode(bytes, type);
+            putLocal(keyPrefix, key, r, true);
+            return r;
         }
 
         // 2.1 判断当前查询到value是否是一个空字符串
-        if (json != null) {
+        if (bytes != null) {
+            putLocal(keyPrefix, key, NULL_VALUE, true);
             return null;
         }
 
         // 3.不存在，查询数据库，交给用户实现一个Function类型
+        long begin = System.nanoTime();
         R r = dbFallback.apply(id);
         if (r == null) {
             // 如果数据库没有商户，将当前的key设置为空字符串，防止缓存穿透
-            stringRedisTemplate.opsForValue().set(key, "",
-                    RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+            setBytes(key, EMPTY, RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+        } else {
+            set(key, r, time, unit);
         }
-
-        set(key, r, time, unit);
+        cacheMetrics.of(keyPrefix).recordRebuild(System.nanoTime() - begin);
+        putLocal(keyPrefix, key, r == null ? NULL_VALUE : r, false);
         return r;
     }
 
-    private static final ThreadPoolExecutor CACHE_REBUILD_EXECUTOR = new ThreadPoolExecutor(
-            2,
-            5,
-            2L,
-            TimeUnit.SECONDS,
-            new ArrayBlockingQueue<>(3)
-    );
-
     /**
      * 利用逻辑过期机制来防止缓存击穿
      * @param id
@@ -81,16 +251,25 @@ public class CacheClient {
     public <R, ID> R queryWithLogicExpire(String keyPrefix, ID id, Class<R> type,
                                           Function<ID, R> dbFallback, Long logicTime, TimeUnit unit) {
         // 1.默认必然能查询到数据，缓存预热，反序列化Shop信息
-        String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isBlank(json)) {
-            // 数据空直接返回
+        if (rejectByBloomFilter(keyPrefix, id)) {
             return null;
         }
-        // 因为采用逻辑过期方法
-        // redis中保存的数据为, 过期时间 + obj的json字符串，是RedisData的序列化对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        String key = keyPrefix + id;
+        // 一级缓存中保存的是反序列化之后的RedisData，依然按照逻辑过期时间判断
+        RedisData redisData = (RedisData) getLocal(keyPrefix, key);
+        if (redisData == null) {
+            byte[] bytes = getBytes(key);
+            if (bytes == null || bytes.length == 0) {
+                // 数据空直接返回
+                cacheMetrics.of(keyPrefix).recordMiss();
+                return null;
+            }
+            // 因为采用逻辑过期方法
+            // redis中保存的数据为, 过期时间 + obj，由编码器一次解码出data的实际类型
+            redisData = codecFor(bytes).decodeWithExpire(bytes, type);
+            putLocal(keyPrefix, key, redisData, true);
+        }
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         // 2.判断数据是否过期
         if (expireTime.isAfter(LocalDateTime.now())) {
@@ -100,25 +279,18 @@ public class CacheClient {
 
         // 4.过期，缓存重建
         // 加锁：只要一个线程执行缓存重建即可, lock + 业务前缀 + id
+        // 4.1 交给重建调度器，获取锁失败或者队列已满时直接返回旧数据
         String lockKey = "lock:" + keyPrefix + id;
-        boolean lock = tryLock(lockKey);
-        if (!lock) {
-            // 4.1获取互斥锁，如果失败直接返回商户信息
-            return r;
-        }
-
-        // 4.2成功，启动异步线程，
-        CACHE_REBUILD_EXECUTOR.submit(() -> {
-            try {
-                // 4.3 先查询数据库
-                R r1 = dbFallback.apply(id);
-                // 4.4 再重建缓存
-                this.setWithLogicExpire(key, r1, logicTime, unit);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                unlock(lockKey);
-            }
+        refreshScheduler.submit(keyPrefix, key, lockKey, () -> {
+            long begin = System.nanoTime();
+            // 4.2 先查询数据库
+            R r1 = dbFallback.apply(id);
+            // 4.3 再重建缓存
+            this.setWithLogicExpire(key, r1, logicTime, unit);
+            cacheMetrics.of(keyPrefix).recordRebuild(System.nanoTime() - begin);
+            // 4.4 本节点和其他节点的一级缓存失效
+            invalidateLocal(key);
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
         });
         return r;
     }
@@ -146,48 +318,322 @@ public class CacheClient {
                                     Function<ID, R> dbFallback,
                                     Long time,
                                     TimeUnit unit) {
+        if (rejectByBloomFilter(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(json)) { // 非空直接返回
-            return JSONUtil.toBean(json, type);
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+        byte[] bytes;
+        if (xfetchBeta > 0) {
+            // 同一次往返中读取剩余过期时间和上次重建的耗时
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                connection.get(rawKey);
+                connection.pTtl(rawKey);
+                connection.get(deltaKey(key));
+                return null;
+            }, RedisSerializer.byteArray());
+            bytes = (byte[]) results.get(0);
+            if (bytes != null && bytes.length > 0
+                    && shouldRefreshEarly((Long) results.get(1), (byte[]) results.get(2))) {
+                refreshAhead(keyPrefix, id, dbFallback, time, unit);
+            }
+        } else {
+            bytes = getBytes(key);
+        }
+        if (bytes != null && bytes.length > 0) { // 非空直接返回
+            R r = decode(bytes, type);
+            putLocal(keyPrefix, key, r, true);
+            return r;
+        }
+        // 如果value为空说明，当前数据库不存在数据
+        if (bytes != null) {
+            putLocal(keyPrefix, key, NULL_VALUE, true);
+            return null;
         }
-        // 如果json==""说明，当前数据库不存在数据
-        if (json != null) {return null;}
 
-        // 缓存重建
+        // 缓存重建，同一个节点上同一个key只有一个线程去竞争分布式锁，其他线程等待它的结果
+        return singleFlight.execute(key, () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    private <R, ID> R rebuildWithMutex(String keyPrefix,
+                                       ID id,
+                                       Class<R> type,
+                                       Function<ID, R> dbFallback,
+                                       Long time,
+                                       TimeUnit unit) {
+        String key = keyPrefix + id;
         String lockKey = "lock:" + keyPrefix + id; // 相当于对每个shop加锁
         // 1.获取互斥锁
+        boolean flag = tryLock(lockKey);
         try {
-            boolean flag = tryLock(lockKey);
-            // 2.失败，休眠，双检策略
-            if (!flag) {
-                while (true) {
-                    TimeUnit.MILLISECONDS.sleep(50);
-                    flag = tryLock(lockKey);    // 再次尝试获得锁
-                    if (flag) {
-                        String json1 = stringRedisTemplate.opsForValue().get(key);
-                        if (StrUtil.isNotBlank(json1))
-                            return JSONUtil.toBean(json1, type);   // 说明存在其他线程重建了缓存
-                        if (json1 != null) return null;
-                        break;
-                    }
+            // 2.失败，说明其他节点正在重建，休眠，双检策略
+            long waitBegin = System.nanoTime();
+            while (!flag) {
+                TimeUnit.MILLISECONDS.sleep(50);
+                byte[] bytes = getBytes(key);
+                if (bytes != null) {
+                    // 说明其他节点重建了缓存
+                    cacheMetrics.of(keyPrefix).recordLockWait(System.nanoTime() - waitBegin);
+                    R r = bytes.length > 0 ? decode(bytes, type) : null;
+                    putLocal(keyPrefix, key, r == null ? NULL_VALUE : r, true);
+                    return r;
+                }
+                flag = tryLock(lockKey);    // 再次尝试获得锁
+                if (flag) {
+                    cacheMetrics.of(keyPrefix).recordLockWait(System.nanoTime() - waitBegin);
                 }
             }
             // 3.成功获取锁，读mysql，写redis，释放互斥锁
+            long begin = System.nanoTime();
             R r = dbFallback.apply(id);
             if (r == null) {
                 // 数据库不存在，将value设置为""，防止缓存穿透
-                stringRedisTemplate.opsForValue().set(key, "",
-                        RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                setBytes(key, EMPTY, RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
                 log.debug("店铺不存在");
-                return null;
+            } else if (xfetchBeta > 0) {
+                setWithDelta(key, r, time, unit, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+            } else {
+                set(key, r, time, unit);
             }
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(r), time, unit);
+            cacheMetrics.of(keyPrefix).recordRebuild(System.nanoTime() - begin);
+            putLocal(keyPrefix, key, r == null ? NULL_VALUE : r, false);
             return r;
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         } finally {
-            unlock(lockKey);    // 防止死锁，
+            if (flag) {
+                unlock(lockKey);    // 防止死锁，
+            }
+        }
+    }
+
+    /**
+     * 批量查询：一次MGET查询redis，未命中的id一次IN查询数据库，再用pipeline批量写回redis
+     * @param ids 可以重复，返回结果与ids顺序一一对应，不存在的数据对应null
+     * @param dbBatchFallback 根据未命中的id批量查询数据库，返回id到数据的映射
+     * @return
+     * @param <R>
+     * @param <ID>
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix,
+                                      List<ID> ids,
+                                      Class<R> type,
+                                      Function<List<ID>, Map<ID, R>> dbBatchFallback,
+                                      Long time,
+                                      TimeUnit unit) {
+        Map<ID, R> found = new HashMap<>();
+        // 1.查询一级缓存，过滤掉布隆过滤器判断不存在的id
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (rejectByBloomFilter(keyPrefix, id)) {
+                continue;
+            }
+            Object local = getLocal(keyPrefix, keyPrefix + id);
+            if (local == null) {
+                remoteIds.add(id);
+            } else if (local != NULL_VALUE) {
+                found.put(id, type.cast(local));
+            }
+        }
+
+        // 2.一次MGET查询redis
+        List<ID> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            byte[][] rawKeys = new byte[remoteIds.size()][];
+            for (int i = 0; i < rawKeys.length; i++) {
+                rawKeys[i] = (keyPrefix + remoteIds.get(i)).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> values = stringRedisTemplate.execute(
+                    (RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+            for (int i = 0; i < remoteIds.size(); i++) {
+                ID id = remoteIds.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes == null) {
+                    missIds.add(id);
+                } else if (bytes.length == 0) {
+                    // 空值说明数据库不存在
+                    putLocal(keyPrefix, keyPrefix + id, NULL_VALUE, true);
+                } else {
+                    R r = decode(bytes, type);
+                    putLocal(keyPrefix, keyPrefix + id, r, true);
+                    found.put(id, r);
+                }
+            }
+        }
+
+        // 3.未命中的id一次查询数据库，pipeline写回redis，数据库不存在的写入空值
+        if (!missIds.isEmpty()) {
+            long begin = System.nanoTime();
+            Map<ID, R> loaded = dbBatchFallback.apply(missIds);
+            Map<String, byte[]> writes = new LinkedHashMap<>(missIds.size());
+            for (ID id : missIds) {
+                String key = keyPrefix + id;
+                R r = loaded.get(id);
+                if (r == null) {
+                    writes.put(key, EMPTY);
+                    putLocal(keyPrefix, key, NULL_VALUE, false);
+                } else {
+                    writes.put(key, codec.encode(r));
+                    putLocal(keyPrefix, key, r, false);
+                    found.put(id, r);
+                }
+            }
+            Expiration expiration = Expiration.milliseconds(jitter(time, unit));
+            Expiration nullExpiration = Expiration.from(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                writes.forEach((key, value) -> connection.set(key.getBytes(StandardCharsets.UTF_8), value,
+                        value.length == 0 ? nullExpiration : expiration, RedisStringCommands.SetOption.upsert()));
+                return null;
+            });
+            cacheMetrics.of(keyPrefix).recordRebuild(System.nanoTime() - begin);
+        }
+
+        // 4.按照ids的顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * XFetch: now - delta * beta * ln(rand) >= expiry 时提前刷新，
+     * 重建越慢、越接近过期，提前刷新的概率越大
+     * @param ttlMillis 剩余过期时间
+     * @param delta 上次重建的耗时(ms)
+     */
+    private boolean shouldRefreshEarly(Long ttlMillis, byte[] delta) {
+        if (ttlMillis == null || ttlMillis < 0 || delta == null) {
+            return false;
         }
+        long deltaMillis = Long.parseLong(new String(delta, StandardCharsets.UTF_8));
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return -deltaMillis * xfetchBeta * Math.log(random) >= ttlMillis;
+    }
+
+    /**
+     * 后台重建缓存，当前请求直接返回旧数据，分布式锁保证同一时间只有一个节点重建
+     */
+    private <R, ID> void refreshAhead(String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        String lockKey = "lock:" + keyPrefix + id;
+        refreshScheduler.submit(keyPrefix, key, lockKey, () -> {
+            long begin = System.nanoTime();
+            R r = dbFallback.apply(id);
+            if (r != null) {
+                setWithDelta(key, r, time, unit, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                cacheMetrics.of(keyPrefix).recordRebuild(System.nanoTime() - begin);
+                invalidateLocal(key);
+                stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+            }
+        });
+    }
+
+    /**
+     * 在过期时间上增加随机抖动
+     * @return 抖动之后的过期时间(ms)
+     */
+    private long jitter(Long time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        if (ttlJitter <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private static byte[] deltaKey(String key) {
+        return (key + ":delta").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] getBytes(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    private void setBytes(String key, byte[] value, Long time, TimeUnit unit) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        Expiration expiration = time == null ? Expiration.persistent() : Expiration.from(time, unit);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(rawKey, value,
+                expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    private <R> R decode(byte[] bytes, Class<R> type) {
+        return codecFor(bytes).decode(bytes, type);
+    }
+
+    /**
+     * 优先使用当前配置的编码器，切换编码方式之前写入的数据由对应的编码器读取
+     */
+    private CacheCodec codecFor(byte[] bytes) {
+        if (codec.canDecode(bytes)) {
+            return codec;
+        }
+        for (CacheCodec c : codecs) {
+            if (c.canDecode(bytes)) {
+                return c;
+            }
+        }
+        throw new IllegalStateException("无法识别的缓存数据");
+    }
+
+    private <ID> boolean rejectByBloomFilter(String keyPrefix, ID id) {
+        String filterName = bloomFilters.get(keyPrefix);
+        if (filterName == null || !(id instanceof Number)
+                || idBloomFilter.mightContain(filterName, ((Number) id).longValue())) {
+            return false;
+        }
+        cacheMetrics.of(keyPrefix).recordBloomReject();
+        return true;
+    }
+
+    private Object getLocal(String keyPrefix, String key) {
+        hotKeyDetector.record(key);
+        Cache<String, Object> cache = localCaches.get(keyPrefix);
+        if (cache == null && hotKeyDetector.isHot(key)) {
+            // 已经降级的key不再读取本地副本，等待过期即可
+            cache = hotKeyCache;
+        }
+        Object value = cache == null ? null : cache.getIfPresent(key);
+        if (value == NULL_VALUE) {
+            cacheMetrics.of(keyPrefix).recordNullHit();
+        } else if (value != null) {
+            cacheMetrics.of(keyPrefix).recordL1Hit();
+        }
+        return value;
+    }
+
+    /**
+     * @param fromRedis true表示数据来自redis(二级缓存命中)，false表示来自数据库
+     */
+    private void putLocal(String keyPrefix, String key, Object value, boolean fromRedis) {
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(keyPrefix);
+        if (!fromRedis) {
+            metrics.recordMiss();
+        } else if (value == NULL_VALUE) {
+            metrics.recordNullHit();
+        } else {
+            metrics.recordL2Hit();
+        }
+        Cache<String, Object> cache = localCaches.get(keyPrefix);
+        if (cache != null) {
+            cache.put(key, value);
+        } else if (hotKeyDetector.isHot(key)) {
+            hotKeyCache.put(key, value);
+        }
+    }
+
+    private void invalidateLocal(String key) {
+        hotKeyCache.invalidate(key);
+        responseCache.invalidate(key);
+        localCaches.forEach((prefix, cache) -> {
+            if (key.startsWith(prefix)) {
+                cache.invalidate(key);
+            }
+        });
     }
 }
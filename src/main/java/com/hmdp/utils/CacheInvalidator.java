@@ -0,0 +1,84 @@
+package com.hmdp.utils;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 事务感知的缓存删除：在事务中调用时，删除操作延迟到事务提交之后执行，
+ * 同一个事务中的多次删除合并为一次pipeline；删除之后再延迟一段时间删除第二次(延迟双删)，
+ * 清掉事务提交前后被并发读请求回填的旧数据。事务回滚时不删除
+ */
+@Component
+@Slf4j
+public class CacheInvalidator {
+
+    // 延迟双删使用时间轮调度，大量删除任务时只占用一个线程
+    private static final Timer DOUBLE_DELETE_TIMER = new HashedWheelTimer(
+            r -> new Thread(r, "cache-double-delete"), 100, TimeUnit.MILLISECONDS);
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @PreDestroy
+    private void destroy() {
+        DOUBLE_DELETE_TIMER.stop();
+    }
+
+    public void invalidate(String key) {
+        invalidate(Collections.singletonList(key));
+    }
+
+    public void invalidate(Collection<String> keys) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deleteTwice(keys);
+            return;
+        }
+        // 同一个事务只注册一次回调，key合并到同一个集合中
+        @SuppressWarnings("unchecked")
+        Set<String> pending = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            Set<String> batch = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(this, batch);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    deleteTwice(batch);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidator.this);
+                }
+            });
+            pending = batch;
+        }
+        pending.addAll(keys);
+    }
+
+    private void deleteTwice(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        cacheClient.deleteAll(keys);
+        Set<String> copy = new LinkedHashSet<>(keys);
+        DOUBLE_DELETE_TIMER.newTimeout(timeout -> {
+            try {
+                cacheClient.deleteAll(copy);
+            } catch (Exception e) {
+                log.error("延迟删除缓存失败:{}", copy, e);
+            }
+        }, SystemConstants.CACHE_DOUBLE_DELETE_DELAY, TimeUnit.MILLISECONDS);
+    }
+}
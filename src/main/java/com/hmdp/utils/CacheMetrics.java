@@ -0,0 +1,170 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 按key前缀统计缓存的命中、空值命中、未命中、锁等待和重建情况
+ * 读路径上只做LongAdder累加，micrometer在采集时读取LongAdder的值；
+ * 重建耗时和锁等待耗时不在热点路径上，直接记录到micrometer的Timer中
+ */
+@Component
+public class CacheMetrics {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, PrefixMetrics> metrics = new ConcurrentHashMap<>();
+
+    public PrefixMetrics of(String keyPrefix) {
+        return metrics.computeIfAbsent(keyPrefix, PrefixMetrics::new);
+    }
+
+    /**
+     * 各个key前缀的统计数据，供/admin/cache/stats使用
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        metrics.forEach((prefix, m) -> result.put(prefix, m.snapshot()));
+        return result;
+    }
+
+    public class PrefixMetrics {
+        private final String prefix;
+        private final LongAdder l1Hits = new LongAdder();
+        private final LongAdder l2Hits = new LongAdder();
+        private final LongAdder nullHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder bloomRejects = new LongAdder();
+        private final LongAdder lockWaits = new LongAdder();
+        private final LongAdder rebuildRejections = new LongAdder();
+        private final Timer rebuildTimer;
+        private final Timer lockWaitTimer;
+        private Supplier<Number> localSize;
+
+        private PrefixMetrics(String prefix) {
+            this.prefix = prefix;
+            counter("l1_hit", l1Hits);
+            counter("l2_hit", l2Hits);
+            counter("null_hit", nullHits);
+            counter("miss", misses);
+            counter("bloom_reject", bloomRejects);
+            FunctionCounter.builder("cache.lock.waits", lockWaits, LongAdder::sum)
+                    .tag("prefix", prefix)
+                    .register(meterRegistry);
+            FunctionCounter.builder("cache.rebuild.rejections", rebuildRejections, LongAdder::sum)
+                    .tag("prefix", prefix)
+                    .register(meterRegistry);
+            rebuildTimer = timer("cache.rebuild");
+            lockWaitTimer = timer("cache.lock.wait");
+        }
+
+        public void recordL1Hit() {
+            l1Hits.increment();
+        }
+
+        public void recordL2Hit() {
+            l2Hits.increment();
+        }
+
+        public void recordNullHit() {
+            nullHits.increment();
+        }
+
+        public void recordMiss() {
+            misses.increment();
+        }
+
+        public void recordBloomReject() {
+            bloomRejects.increment();
+        }
+
+        public void recordLockWait(long nanos) {
+            lockWaits.increment();
+            lockWaitTimer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordRebuild(long nanos) {
+            rebuildTimer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordRebuildRejected() {
+            rebuildRejections.increment();
+        }
+
+        /**
+         * 绑定本地缓存的条目数
+         */
+        public void bindLocalSize(Supplier<Number> localSize) {
+            this.localSize = localSize;
+            Gauge.builder("cache.l1.size", localSize, s -> s.get().doubleValue())
+                    .tag("prefix", prefix)
+                    .register(meterRegistry);
+        }
+
+        private Map<String, Object> snapshot() {
+            long l1 = l1Hits.sum();
+            long l2 = l2Hits.sum();
+            long nul = nullHits.sum();
+            long miss = misses.sum();
+            long total = l1 + l2 + nul + miss;
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("l1Hits", l1);
+            item.put("l2Hits", l2);
+            item.put("nullHits", nul);
+            item.put("misses", miss);
+            item.put("bloomRejects", bloomRejects.sum());
+            item.put("l1HitRatio", total == 0 ? 0 : (double) l1 / total);
+            item.put("l2HitRatio", total == 0 ? 0 : (double) l2 / total);
+            item.put("missRatio", total == 0 ? 0 : (double) miss / total);
+            if (localSize != null) {
+                item.put("l1Size", localSize.get());
+            }
+            item.put("lockWaits", lockWaits.sum());
+            item.put("lockWaitMs", timerSnapshot(lockWaitTimer));
+            item.put("rebuildMs", timerSnapshot(rebuildTimer));
+            item.put("rebuildRejections", rebuildRejections.sum());
+            return item;
+        }
+
+        private void counter(String result, LongAdder adder) {
+            FunctionCounter.builder("cache.requests", adder, LongAdder::sum)
+                    .tag("prefix", prefix)
+                    .tag("result", result)
+                    .register(meterRegistry);
+        }
+
+        private Timer timer(String name) {
+            return Timer.builder(name)
+                    .tag("prefix", prefix)
+                    .publishPercentiles(0.5, 0.99)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+    }
+
+    private static Map<String, Object> timerSnapshot(Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("count", snapshot.count());
+        item.put("mean", snapshot.mean(TimeUnit.MILLISECONDS));
+        item.put("max", snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile p : snapshot.percentileValues()) {
+            item.put("p" + Math.round(p.percentile() * 100), p.value(TimeUnit.MILLISECONDS));
+        }
+        return item;
+    }
+}
@@ -0,0 +1,302 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_KEY;
+
+/**
+ * 启动时并行预热商户、商户类型和未结束的秒杀券库存
+ * 每类数据用mybatis游标流式读取，按CACHE_WARMUP_BATCH条一个pipeline写入redis；
+ * 作为ApplicationRunner同步等待预热完成，在此之前readiness探针为REFUSING_TRAFFIC，
+ * 新扩容的节点不会在缓存为空时接收流量
+ */
+@Component
+@Slf4j
+public class CacheWarmer implements ApplicationRunner {
+
+    private static final ExecutorService CACHE_WARMUP_EXECUTOR = Executors.newFixedThreadPool(3);
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${hmdp.cache.warmup.enabled:true}")
+    private boolean enabled;
+
+    // 秒杀库存分片数，与VoucherServiceImpl保持一致
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
+
+    private final Map<String, Progress> progress = new ConcurrentHashMap<>();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            CompletableFuture.allOf(
+                    CompletableFuture.runAsync(() -> warm("shop", this::warmShops), CACHE_WARMUP_EXECUTOR),
+                    CompletableFuture.runAsync(() -> warm("shopType", this::warmShopTypes), CACHE_WARMUP_EXECUTOR),
+                    CompletableFuture.runAsync(() -> warm("seckill", this::warmSeckillStock), CACHE_WARMUP_EXECUTOR)
+            ).join();
+            log.info("缓存预热完成，耗时{}ms，{}", System.currentTimeMillis() - begin, progress());
+        } catch (Exception e) {
+            // 预热失败不阻止启动，未预热的数据在第一次查询时重建
+            log.error("缓存预热失败", e);
+        } finally {
+            CACHE_WARMUP_EXECUTOR.shutdown();
+        }
+    }
+
+    /**
+     * 各类数据已经写入的条数、状态和耗时
+     */
+    public Map<String, Map<String, Object>> progress() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        progress.forEach((name, p) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("status", p.status);
+            item.put("rows", p.rows.get());
+            item.put("elapsedMs", (p.end == 0 ? System.currentTimeMillis() : p.end) - p.begin);
+            result.put(name, item);
+        });
+        return result;
+    }
+
+    private void warm(String name, Consumer<Progress> task) {
+        Progress p = new Progress();
+        progress.put(name, p);
+        try {
+            task.accept(p);
+            p.status = "done";
+        } catch (RuntimeException e) {
+            p.status = "failed";
+            throw e;
+        } finally {
+            p.end = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 同时按类型加载商户坐标到GEO索引 shop:geo:{typeId}
+     */
+    private void warmShops(Progress p) {
+        Map<String, Shop> batch = new LinkedHashMap<>();
+        Set<Long> typeIds = new HashSet<>();
+        scan(() -> shopMapper.scanAll(), shop -> {
+            batch.put(RedisConstants.CACHE_SHOP_KEY + shop.getId(), shop);
+            if (shop.getTypeId() != null) {
+                typeIds.add(shop.getTypeId());
+            }
+            if (batch.size() >= SystemConstants.CACHE_WARMUP_BATCH) {
+                flushShops(batch, p);
+            }
+        });
+        flushShops(batch, p);
+        // 所有商户写入之后才标记索引加载完成，有商户的类型索引key必须存在
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            typeIds.forEach(typeId -> connection.set(bytes(RedisConstants.SHOP_GEO_LOADED_KEY + typeId), bytes("1")));
+            return null;
+        });
+    }
+
+    private void flushShops(Map<String, Shop> batch, Progress p) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        cacheClient.setAll(batch, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        Map<Long, Map<byte[], Point>> locations = new HashMap<>();
+        for (Shop shop : batch.values()) {
+            if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                locations.computeIfAbsent(shop.getTypeId(), typeId -> new LinkedHashMap<>())
+                        .put(bytes(shop.getId().toString()), new Point(shop.getX(), shop.getY()));
+            }
+        }
+        if (!locations.isEmpty()) {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                locations.forEach((typeId, members) ->
+                        connection.geoAdd(bytes(RedisConstants.SHOP_GEO_KEY + typeId), members));
+                return null;
+            });
+        }
+        p.add("shop", batch.size());
+        batch.clear();
+    }
+
+    /**
+     * 商户类型数量很少，整体写入临时key之后rename，读请求不会读到一半的列表
+     */
+    private void warmShopTypes(Progress p) {
+        List<byte[]> types = new ArrayList<>();
+        scan(() -> shopTypeMapper.scanAll(),
+                type -> types.add(JSONUtil.toJsonStr(type).getBytes(StandardCharsets.UTF_8)));
+        if (types.isEmpty()) {
+            return;
+        }
+        byte[] key = RedisConstants.CACHE_SHOP_TYPE_KEY.getBytes(StandardCharsets.UTF_8);
+        byte[] tmpKey = (RedisConstants.CACHE_SHOP_TYPE_KEY + ":warmup").getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.del(tmpKey);
+            connection.rPush(tmpKey, types.toArray(new byte[0][]));
+            connection.rename(tmpKey, key);
+            return null;
+        });
+        // 通知各节点重新加载商户类型快照
+        Long version = stringRedisTemplate.opsForValue().increment(RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_SHOP_TYPE_CHANNEL, String.valueOf(version));
+        p.add("shopType", types.size());
+    }
+
+    /**
+     * 只补充redis中不存在的库存，秒杀进行中redis的库存比数据库更准确，不能覆盖
+     */
+    private void warmSeckillStock(Progress p) {
+        List<SeckillVoucher> batch = new ArrayList<>();
+        scan(() -> seckillVoucherMapper.scanActive(LocalDateTime.now()), voucher -> {
+            batch.add(voucher);
+            if (batch.size() >= SystemConstants.CACHE_WARMUP_BATCH) {
+                flushSeckillStock(batch, p);
+            }
+        });
+        flushSeckillStock(batch, p);
+    }
+
+    private void flushSeckillStock(List<SeckillVoucher> batch, Progress p) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Expiration persistent = Expiration.persistent();
+        RedisStringCommands.SetOption ifAbsent = RedisStringCommands.SetOption.ifAbsent();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SeckillVoucher voucher : batch) {
+                Long id = voucher.getVoucherId();
+                Map<byte[], byte[]> window = window(voucher);
+                if (stockShards <= 1) {
+                    connection.set(bytes(SECKILL_STOCK_KEY + id), bytes(String.valueOf(voucher.getStock())),
+                            persistent, ifAbsent);
+                    window.forEach((field, value) ->
+                            connection.hSetNX(bytes(SECKILL_WINDOW_KEY + id), field, value));
+                    continue;
+                }
+                int base = voucher.getStock() / stockShards;
+                int remainder = voucher.getStock() % stockShards;
+                for (int i = 0; i < stockShards; i++) {
+                    String shard = "{" + id + ":" + i + "}";
+                    int shardStock = base + (i < remainder ? 1 : 0);
+                    connection.set(bytes(SECKILL_STOCK_KEY + shard), bytes(String.valueOf(shardStock)),
+                            persistent, ifAbsent);
+                    window.forEach((field, value) ->
+                            connection.hSetNX(bytes(SECKILL_WINDOW_KEY + shard), field, value));
+                }
+                // 分片数最后写入
+                connection.set(bytes(SECKILL_SHARDS_KEY + id), bytes(String.valueOf(stockShards)),
+                        persistent, ifAbsent);
+            }
+            return null;
+        });
+        p.add("seckill", batch.size());
+        batch.clear();
+    }
+
+    private static Map<byte[], byte[]> window(SeckillVoucher voucher) {
+        Map<byte[], byte[]> window = new LinkedHashMap<>();
+        if (voucher.getBeginTime() != null) {
+            window.put(bytes("begin"), bytes(String.valueOf(toEpochMilli(voucher.getBeginTime()))));
+        }
+        if (voucher.getEndTime() != null) {
+            window.put(bytes("end"), bytes(String.valueOf(toEpochMilli(voucher.getEndTime()))));
+        }
+        return window;
+    }
+
+    /**
+     * 游标需要在同一个事务(同一个连接)中消费
+     */
+    private <T> void scan(Supplier<Cursor<T>> query, Consumer<T> consumer) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(true);
+        template.executeWithoutResult(status -> {
+            try (Cursor<T> cursor = query.get()) {
+                cursor.forEach(consumer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Progress {
+        private final long begin = System.currentTimeMillis();
+        private final AtomicLong rows = new AtomicLong();
+        private volatile String status = "running";
+        private volatile long end;
+
+        private void add(String name, int count) {
+            long total = rows.addAndGet(count);
+            if (total % (SystemConstants.CACHE_WARMUP_BATCH * 10L) < count) {
+                log.info("缓存预热{}: 已写入{}条", name, total);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点key探测：按采样率记录CacheClient的读请求，每个时间窗口用count-min sketch估算访问次数，
+ * 窗口结束时取访问次数超过阈值的top-K作为下一个窗口的热点key；
+ * 已经是热点的key访问次数降到阈值的一半以下才降级，避免在阈值附近反复升降
+ */
+@Component
+public class HotKeyDetector {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1 << 12;
+
+    private static final ScheduledExecutorService HOT_KEY_ROTATE_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private volatile CountMinSketch sketch = new CountMinSketch();
+    // 当前窗口内估算次数超过阈值一半的key，窗口结束时从中选出热点
+    private volatile Map<String, Long> candidates = new ConcurrentHashMap<>();
+    // 上一个窗口选出的热点key及其访问次数
+    private volatile Map<String, Long> hotKeys = Collections.emptyMap();
+
+    @PostConstruct
+    private void init() {
+        HOT_KEY_ROTATE_EXECUTOR.scheduleAtFixedRate(this::rotate, SystemConstants.HOT_KEY_WINDOW_MILLIS,
+                SystemConstants.HOT_KEY_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        HOT_KEY_ROTATE_EXECUTOR.shutdown();
+    }
+
+    /**
+     * 记录一次读请求，只有1/HOT_KEY_SAMPLE_RATE的请求会真正计数
+     */
+    public void record(String key) {
+        if (ThreadLocalRandom.current().nextInt(SystemConstants.HOT_KEY_SAMPLE_RATE) != 0) {
+            return;
+        }
+        long estimate = sketch.increment(key) * SystemConstants.HOT_KEY_SAMPLE_RATE;
+        if (estimate >= SystemConstants.HOT_KEY_THRESHOLD / 2) {
+            candidates.put(key, estimate);
+        }
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前的热点key，按访问次数从高到低排列
+     */
+    public Map<String, Long> hotKeys() {
+        return hotKeys;
+    }
+
+    private void rotate() {
+        Map<String, Long> window = candidates;
+        Map<String, Long> previous = hotKeys;
+        candidates = new ConcurrentHashMap<>();
+        sketch = new CountMinSketch();
+
+        // 小顶堆取top-K
+        PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Long> entry : window.entrySet()) {
+            long threshold = previous.containsKey(entry.getKey())
+                    ? SystemConstants.HOT_KEY_THRESHOLD / 2 : SystemConstants.HOT_KEY_THRESHOLD;
+            if (entry.getValue() < threshold) {
+                continue;
+            }
+            heap.offer(entry);
+            if (heap.size() > SystemConstants.HOT_KEY_TOP_K) {
+                heap.poll();
+            }
+        }
+        List<Map.Entry<String, Long>> top = new ArrayList<>(heap);
+        top.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> next = new LinkedHashMap<>();
+        top.forEach(entry -> next.put(entry.getKey(), entry.getValue()));
+        hotKeys = Collections.unmodifiableMap(next);
+    }
+
+    private static class CountMinSketch {
+        private final AtomicLongArray counters = new AtomicLongArray(SKETCH_DEPTH * SKETCH_WIDTH);
+
+        /**
+         * 计数加一，返回各行计数的最小值作为估算值
+         */
+        private long increment(String key) {
+            int h1 = key.hashCode();
+            int h2 = spread(h1);
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < SKETCH_DEPTH; i++) {
+                int index = (h1 + i * h2) & (SKETCH_WIDTH - 1);
+                min = Math.min(min, counters.incrementAndGet(i * SKETCH_WIDTH + index));
+            }
+            return min;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            return h | 1;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import com.hmdp.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * 商户、优惠券、用户id的布隆过滤器，不存在的id直接拒绝，不再访问redis和数据库
+ * 启动后按id分批扫描数据库构建，构建完成之前全部放行；新增数据时由save方法写入
+ * 默认每个节点在本地保存位数组，新增的id通过发布订阅同步到其他节点；
+ * hmdp.bloom.redis=true 时位数组保存在redis的bitmap中，所有节点共享；
+ * 只有一个节点持有锁扫描数据库，写完所有位之后设置 bloom:{name}:ready，其他节点等待这个标记
+ */
+@Component
+@Slf4j
+public class IdBloomFilter implements MessageListener {
+
+    public static final String SHOP = "shop";
+    public static final String VOUCHER = "voucher";
+    public static final String USER = "user";
+
+    private static final ExecutorService BLOOM_BUILD_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private VoucherMapper voucherMapper;
+    @Resource
+    private UserMapper userMapper;
+
+    @Value("${hmdp.bloom.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.bloom.redis:false}")
+    private boolean redisMode;
+
+    private final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+    // 已经构建完成的过滤器
+    private final Set<String> ready = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        for (String name : new String[]{SHOP, VOUCHER, USER}) {
+            filters.put(name, new BloomFilter(SystemConstants.BLOOM_EXPECTED_INSERTIONS,
+                    SystemConstants.BLOOM_FPP, !redisMode));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        if (!enabled) {
+            return;
+        }
+        BLOOM_BUILD_EXECUTOR.submit(() -> {
+            build(SHOP, shopMapper);
+            build(VOUCHER, voucherMapper);
+            build(USER, userMapper);
+        });
+    }
+
+    @PreDestroy
+    private void destroy() {
+        BLOOM_BUILD_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 判断id是否可能存在，返回false时id一定不存在
+     */
+    public boolean mightContain(String name, Long id) {
+        if (!enabled || id == null || !ready.contains(name)) {
+            return true;
+        }
+        BloomFilter filter = filters.get(name);
+        if (!redisMode) {
+            return filter.mightContain(id);
+        }
+        byte[] key = key(name);
+        long[] indexes = filter.indexes(id);
+        List<Object> bits = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long index : indexes) {
+                connection.getBit(key, index);
+            }
+            return null;
+        });
+        return bits.stream().allMatch(Boolean.TRUE::equals);
+    }
+
+    /**
+     * 新增数据后调用
+     */
+    public void add(String name, Long id) {
+        if (!enabled || id == null) {
+            return;
+        }
+        if (redisMode) {
+            setBits(name, filters.get(name), Collections.singletonList(id));
+            return;
+        }
+        filters.get(name).put(id);
+        stringRedisTemplate.convertAndSend(RedisConstants.BLOOM_ADD_CHANNEL, name + ":" + id);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int i = body.indexOf(':');
+        BloomFilter filter = i < 0 ? null : filters.get(body.substring(0, i));
+        if (filter == null) {
+            log.error("布隆过滤器消息格式错误:{}", body);
+            return;
+        }
+        filter.put(Long.parseLong(body.substring(i + 1)));
+    }
+
+    /**
+     * 各个过滤器的位数、哈希函数个数、元素个数和按置位比例估算的误判率
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        filters.forEach((name, filter) -> {
+            long bitCount;
+            if (redisMode) {
+                Long count = stringRedisTemplate.execute(
+                        (RedisCallback<Long>) connection -> connection.bitCount(key(name)));
+                bitCount = count == null ? 0 : count;
+            } else {
+                bitCount = filter.bitCount();
+            }
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("ready", ready.contains(name));
+            item.put("mode", redisMode ? "redis" : "local");
+            item.put("bits", filter.getNumBits());
+            item.put("hashes", filter.getNumHashes());
+            item.put("insertions", filter.getInsertions());
+            item.put("bitsSet", bitCount);
+            item.put("estimatedFpp", filter.estimatedFpp(bitCount));
+            result.put(name, item);
+        });
+        return result;
+    }
+
+    private <T> void build(String name, BaseMapper<T> mapper) {
+        try {
+            if (!redisMode) {
+                scanInto(name, mapper);
+                ready.add(name);
+                return;
+            }
+            // bitmap存在不代表构建完成：其他节点可能正在构建、上次构建中途失败，或者只有save写入的几个id
+            String readyKey = RedisConstants.BLOOM_KEY + name + RedisConstants.BLOOM_READY_SUFFIX;
+            SimpleRedisLock lock = new SimpleRedisLock("bloom:" + name, stringRedisTemplate);
+            while (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(readyKey))) {
+                if (!lock.tryLock(RedisConstants.BLOOM_BUILD_LOCK_TTL)) {
+                    // 其他节点正在构建，等待完成标记；构建节点宕机时锁过期后由本节点重新构建
+                    Thread.sleep(1000);
+                    continue;
+                }
+                try {
+                    // 写入的位只会增加，上次中途失败留下的位不影响重新构建
+                    scanInto(name, mapper);
+                    stringRedisTemplate.opsForValue().set(readyKey, "1");
+                } finally {
+                    lock.unlock();
+                }
+            }
+            ready.add(name);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 构建失败时保持放行
+            log.error("布隆过滤器{}构建失败", name, e);
+        }
+    }
+
+    private <T> void scanInto(String name, BaseMapper<T> mapper) {
+        BloomFilter filter = filters.get(name);
+        long begin = System.currentTimeMillis();
+        long total = scanIds(mapper, ids -> {
+            if (redisMode) {
+                setBits(name, filter, ids);
+            } else {
+                ids.forEach(filter::put);
+            }
+        });
+        log.info("布隆过滤器{}构建完成，共{}个id，耗时{}ms", name, total, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 按主键分批扫描id，每批只查询id列
+     */
+    private <T> long scanIds(BaseMapper<T> mapper, Consumer<List<Long>> consumer) {
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            List<Long> ids = mapper.selectObjs(new QueryWrapper<T>()
+                            .select("id")
+                            .gt("id", lastId)
+                            .orderByAsc("id")
+                            .last("limit " + SystemConstants.BLOOM_SCAN_BATCH))
+                    .stream()
+                    .map(id -> ((Number) id).longValue())
+                    .collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                return total;
+            }
+            consumer.accept(ids);
+            total += ids.size();
+            lastId = ids.get(ids.size() - 1);
+            if (ids.size() < SystemConstants.BLOOM_SCAN_BATCH) {
+                return total;
+            }
+        }
+    }
+
+    private void setBits(String name, BloomFilter filter, List<Long> ids) {
+        byte[] key = key(name);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : ids) {
+                for (long index : filter.indexes(id)) {
+                    connection.setBit(key, index, true);
+                }
+            }
+            return null;
+        });
+        ids.forEach(id -> filter.recordInsertion());
+    }
+
+    private static byte[] key(String name) {
+        return (RedisConstants.BLOOM_KEY + name).getBytes(StandardCharsets.UTF_8);
+    }
+}
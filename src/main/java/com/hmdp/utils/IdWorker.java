@@ -0,0 +1,8 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一id生成器，id的高32位为时间戳(秒)，低32位为序列号
+ */
+public interface IdWorker {
+    long nextId(String keyPrefix);
+}
@@ -10,13 +10,52 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_SHOP_LOCAL_TTL = 60L;
+    public static final Long CACHE_SHOP_LOCAL_SIZE = 10000L;
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    // 分页查询缓存的商户id列表，按类型一个hash，field为 页码:每页条数
+    public static final String CACHE_SHOP_PAGE_TYPE_KEY = "cache:page:shop:type:";
+    public static final Long CACHE_SHOP_PAGE_TTL = 30L;
+    // 按名称搜索的商户id列表，每个关键字一个hash: 版本号:关键字，field为 页码:每页条数
+    // 名称变化时递增版本号，旧版本的key不再被读取，等待过期
+    public static final String CACHE_SHOP_PAGE_NAME_KEY = "cache:page:shop:name:";
+    public static final String CACHE_SHOP_PAGE_NAME_VERSION_KEY = "cache:page:shop:name:version";
+    public static final Long CACHE_SHOP_PAGE_NAME_TTL = 5L;
+
+    public static final String CACHE_SHOP_TYPE_KEY = "shop:type:list";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "shop:type:version";
+    public static final String CACHE_SHOP_TYPE_CHANNEL = "shop:type:changed";
+
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    public static final String BLOOM_KEY = "bloom:";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+    // redis模式下bitmap构建完成的标记，bloom:{name}:ready
+    public static final String BLOOM_READY_SUFFIX = ":ready";
+    public static final Long BLOOM_BUILD_LOCK_TTL = 600L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_STREAM_GROUP = "g1";
+    // 多次认领仍然保存失败的stream订单，需要人工处理
+    public static final String SECKILL_ORDER_STREAM_DLQ_KEY = "stream.orders.dlq";
+    public static final String SECKILL_RESULT_KEY = "seckill:result:";
+    public static final Long SECKILL_RESULT_TTL = 30L;
+    // 排队下单结果: 库存已扣减、等待落库 / 订单已经落库
+    public static final String SECKILL_RESULT_ACCEPTED = "ACCEPTED";
+    public static final String SECKILL_RESULT_SAVED = "0";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    // 类型的GEO索引已经完整加载的标记，值为加载时的商户数；只有save写入的索引不完整
+    public static final String SHOP_GEO_LOADED_KEY = "shop:geo:loaded:";
     public static final String USER_SIGN_KEY = "sign:";
 }
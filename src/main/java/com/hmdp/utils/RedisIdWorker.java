@@ -1,5 +1,6 @@
 package com.hmdp.utils;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
@@ -7,15 +8,35 @@ import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdWorker {
 
-    private static final long BEGIN_TIMESTAMP = 1704067200L;
+    static final long BEGIN_TIMESTAMP = 1704067200L;
+
+    // 号段模式：每次从redis租用的序列号数量
+    private static final long SEGMENT_STEP = 1000L;
+    // 号段使用超过该比例时异步预取下一个号段
+    private static final double SEGMENT_PREFETCH_RATIO = 0.8;
+
+    private static final ExecutorService SEGMENT_PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor();
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    // 是否开启号段模式，默认每次INCR
+    @Value("${hmdp.id.segment-enabled:false}")
+    private boolean segmentEnabled;
+
+    private final Map<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+
+    @Override
     public long nextId(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
@@ -24,7 +45,9 @@ public class RedisIdWorker {
         // 2.序列号，子增长，拼接时间，保证序列号不溢出(32bit)
         // 2.1获取当前日期
         String today = now.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        Long increment = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + today);
+        long increment = segmentEnabled
+                ? nextSequenceFromSegment(keyPrefix, today)
+                : stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + today);
 
 
         // 3.拼接
@@ -32,6 +55,81 @@ public class RedisIdWorker {
 
     }
 
+    /**
+     * 号段模式：INCRBY一次租用SEGMENT_STEP个序列号，在本地依次分配
+     * 不同节点租到的号段互不重叠，所以序列号在同一天内依然全局唯一
+     */
+    private long nextSequenceFromSegment(String keyPrefix, String today) {
+        SegmentBuffer buffer = segmentBuffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            // 1.没有号段或者已经跨天，同步租用当天的号段
+            if (segment == null || !segment.day.equals(today)) {
+                synchronized (buffer) {
+                    if (buffer.current == segment) {
+                        buffer.current = leaseSegment(keyPrefix, today);
+                        buffer.next = null;
+                    }
+                }
+                continue;
+            }
+            // 2.从当前号段分配
+            long seq = segment.cursor.getAndIncrement();
+            if (seq <= segment.end) {
+                if (seq - segment.start >= SEGMENT_STEP * SEGMENT_PREFETCH_RATIO) {
+                    prefetch(buffer, keyPrefix, today);
+                }
+                return seq;
+            }
+            // 3.当前号段用完，切换到预取的号段
+            synchronized (buffer) {
+                if (buffer.current == segment) {
+                    Segment next = buffer.next == null ? null : buffer.next.join();
+                    buffer.current = next != null && next.day.equals(today) ? next : leaseSegment(keyPrefix, today);
+                    buffer.next = null;
+                }
+            }
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String keyPrefix, String today) {
+        if (buffer.next != null) {
+            return;
+        }
+        synchronized (buffer) {
+            if (buffer.next == null) {
+                buffer.next = CompletableFuture
+                        .supplyAsync(() -> leaseSegment(keyPrefix, today), SEGMENT_PREFETCH_EXECUTOR)
+                        // 预取失败时返回null，切换时再同步租用
+                        .exceptionally(e -> null);
+            }
+        }
+    }
+
+    private Segment leaseSegment(String keyPrefix, String today) {
+        Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + today, SEGMENT_STEP);
+        return new Segment(today, end - SEGMENT_STEP + 1, end);
+    }
+
+    private static class Segment {
+        private final String day;
+        private final long start;
+        private final long end;
+        private final AtomicLong cursor;
+
+        private Segment(String day, long start, long end) {
+            this.day = day;
+            this.start = start;
+            this.end = end;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private volatile CompletableFuture<Segment> next;
+    }
+
 //    public static void main(String[] args) {
 //        LocalDateTime localDateTime = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
 //        System.out.println(localDateTime.toEpochSecond(ZoneOffset.UTC));
@@ -0,0 +1,261 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 逻辑过期和提前刷新共用的后台缓存重建调度器
+ * 同一个key在排队或重建中时只保留一个任务，重复提交只增加它的优先级；
+ * 队列按访问次数排序，队列满时丢弃访问次数最少的任务并释放它的分布式锁；
+ * 固定数量的线程执行重建，限制同时打到数据库的查询数
+ */
+@Component
+@Slf4j
+public class RefreshScheduler {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 同时执行重建的线程数
+    @Value("${hmdp.cache.refresh.concurrency:4}")
+    private int concurrency;
+
+    // 等待重建的任务数上限
+    @Value("${hmdp.cache.refresh.queue-capacity:256}")
+    private int queueCapacity;
+
+    private ExecutorService workers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // 访问次数多的在前，次数相同先提交的在前
+    private final PriorityQueue<Task> queue = new PriorityQueue<>(
+            Comparator.comparingLong((Task t) -> -t.priority).thenComparingLong(t -> t.seq));
+    // 排队和正在重建的任务，按key去重
+    private final Map<String, Task> pending = new HashMap<>();
+    private long seq;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        workers = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(this::work);
+        }
+        Gauge.builder("cache.refresh.queue.depth", this, RefreshScheduler::queueDepth).register(meterRegistry);
+        Gauge.builder("cache.refresh.running", running, AtomicInteger::get).register(meterRegistry);
+        counter("submitted", submitted);
+        counter("deduplicated", deduplicated);
+        counter("dropped", dropped);
+        counter("completed", completed);
+        counter("failed", failed);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * 提交一个后台重建任务，任务执行结束后释放lockKey
+     * @param keyPrefix 统计用的key前缀
+     * @param key 缓存key，用于去重和计算优先级
+     * @param lockKey 分布式锁，获取失败说明其他节点正在重建
+     * @param rebuild 查询数据库并写回缓存
+     */
+    public void submit(String keyPrefix, String key, String lockKey, Runnable rebuild) {
+        // 1.本节点已经有同一个key的任务，只提高优先级
+        lock.lock();
+        try {
+            Task existing = pending.get(key);
+            if (existing != null) {
+                deduplicated.increment();
+                if (queue.remove(existing)) {
+                    existing.priority++;
+                    queue.offer(existing);
+                }
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // 2.获取分布式锁，同一时间只有一个节点重建
+        if (!tryLock(lockKey)) {
+            return;
+        }
+
+        // 3.入队，队列满时丢弃优先级最低的任务
+        Task task = new Task(keyPrefix, key, lockKey, rebuild);
+        task.priority = Math.max(1L, hotKeyDetector.hotKeys().getOrDefault(key, 1L));
+        Task evicted = null;
+        lock.lock();
+        try {
+            if (queue.size() >= queueCapacity) {
+                Task lowest = lowest();
+                if (lowest.priority >= task.priority) {
+                    evicted = task;
+                } else {
+                    queue.remove(lowest);
+                    pending.remove(lowest.key);
+                    evicted = lowest;
+                }
+            }
+            if (evicted != task) {
+                task.seq = seq++;
+                pending.put(key, task);
+                queue.offer(task);
+                submitted.increment();
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // 4.被丢弃的任务释放锁，下一次请求或者过期后重新提交
+        if (evicted != null) {
+            dropped.increment();
+            cacheMetrics.of(evicted.keyPrefix).recordRebuildRejected();
+            unlock(evicted.lockKey);
+        }
+    }
+
+    /**
+     * 队列长度、运行中的任务数和各项计数，供/admin/cache/refresh使用
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("queueDepth", queueDepth());
+        result.put("queueCapacity", queueCapacity);
+        result.put("running", running.get());
+        result.put("concurrency", concurrency);
+        result.put("submitted", submitted.sum());
+        result.put("deduplicated", deduplicated.sum());
+        result.put("dropped", dropped.sum());
+        result.put("completed", completed.sum());
+        result.put("failed", failed.sum());
+        return result;
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Task task;
+            lock.lock();
+            try {
+                while (queue.isEmpty()) {
+                    notEmpty.await();
+                }
+                task = queue.poll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            running.incrementAndGet();
+            try {
+                task.rebuild.run();
+                completed.increment();
+            } catch (Exception e) {
+                failed.increment();
+                log.error("缓存重建失败: {}", task.key, e);
+            } finally {
+                running.decrementAndGet();
+                lock.lock();
+                try {
+                    pending.remove(task.key);
+                } finally {
+                    lock.unlock();
+                }
+                unlock(task.lockKey);
+            }
+        }
+    }
+
+    private Task lowest() {
+        Task lowest = null;
+        for (Task t : queue) {
+            if (lowest == null || queue.comparator().compare(t, lowest) > 0) {
+                lowest = t;
+            }
+        }
+        return lowest;
+    }
+
+    private double queueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void counter(String result, LongAdder adder) {
+        FunctionCounter.builder("cache.refresh.tasks", adder, LongAdder::sum)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private boolean tryLock(String key) {
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.MINUTES);
+        return BooleanUtil.isTrue(flag);
+    }
+
+    private void unlock(String key) {
+        stringRedisTemplate.delete(key);
+    }
+
+    private static class Task {
+        private final String keyPrefix;
+        private final String key;
+        private final String lockKey;
+        private final Runnable rebuild;
+        private long priority;
+        private long seq;
+
+        private Task(String keyPrefix, String key, String lockKey, Runnable rebuild) {
+            this.keyPrefix = keyPrefix;
+            this.key = key;
+            this.lockKey = lockKey;
+            this.rebuild = rebuild;
+        }
+    }
+}
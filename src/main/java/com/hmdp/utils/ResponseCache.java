@@ -0,0 +1,162 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 读多写少接口的响应体缓存，保存序列化好的Result字节，命中时由拦截器直接写出，不经过controller和消息转换器
+ * key与CacheClient中的缓存key一致，CacheClient的一级缓存失效时(本节点删除或者收到其他节点的失效消息)同时失效
+ */
+@Component
+public class ResponseCache {
+
+    // 小于这个长度的响应体不压缩
+    private static final int GZIP_MIN_LENGTH = 1024;
+
+    private static final String METRICS_PREFIX = "response:";
+
+    // 失效版本号的分段数，必须是2的幂
+    private static final int GENERATION_STRIPES = 1024;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Value("${hmdp.cache.response.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.response.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    // 缓存的响应体总字节数上限
+    @Value("${hmdp.cache.response.max-bytes:67108864}")
+    private long maxBytes;
+
+    // 是否同时保存gzip压缩之后的响应体
+    @Value("${hmdp.cache.response.gzip:false}")
+    private boolean gzip;
+
+    // 与@EnableWebMvc默认的MappingJackson2HttpMessageConverter使用相同的配置，保证输出和controller一致
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    // 按key分段的失效版本号，失效时只增加key所在分段的版本号，查询开始之后同一分段发生过失效的结果不写入缓存，
+    // 防止旧数据覆盖失效；其他key的失效不影响写入
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private Cache<String, Body> cache;
+
+    private CacheMetrics.PrefixMetrics metrics;
+
+    @PostConstruct
+    private void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, Body body) -> body.weight())
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+        metrics = cacheMetrics.of(METRICS_PREFIX);
+        metrics.bindLocalSize(cache::estimatedSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public Body get(String key) {
+        Body body = cache.getIfPresent(key);
+        if (body == null) {
+            metrics.recordMiss();
+        } else {
+            metrics.recordL1Hit();
+        }
+        return body;
+    }
+
+    /**
+     * 查询开始前记录，写入缓存时传回put
+     */
+    public long generation(String key) {
+        return generations.get(stripe(key));
+    }
+
+    public void put(String key, long expectedGeneration, Object result) {
+        int stripe = stripe(key);
+        if (generations.get(stripe) != expectedGeneration) {
+            return;
+        }
+        byte[] plain = serialize(result);
+        byte[] gzipped = gzip && plain.length >= GZIP_MIN_LENGTH ? gzip(plain) : null;
+        cache.put(key, new Body(plain, gzipped));
+        // 写入期间发生了失效，删除刚写入的数据
+        if (generations.get(stripe) != expectedGeneration) {
+            cache.invalidate(key);
+        }
+    }
+
+    public void invalidate(String key) {
+        generations.incrementAndGet(stripe(key));
+        cache.invalidate(key);
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    public byte[] serialize(Object result) {
+        try {
+            return objectMapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static class Body {
+        private final byte[] plain;
+        private final byte[] gzipped;
+
+        private Body(byte[] plain, byte[] gzipped) {
+            this.plain = plain;
+            this.gzipped = gzipped;
+        }
+
+        public byte[] getPlain() {
+            return plain;
+        }
+
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+
+        private int weight() {
+            return plain.length + (gzipped == null ? 0 : gzipped.length);
+        }
+    }
+}
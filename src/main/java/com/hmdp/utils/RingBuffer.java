@@ -0,0 +1,63 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 无锁有界环形队列，多个生产者(tomcat线程)，单个消费者
+ * 生产者CAS抢占写入位置，消费者独占读指针，不需要加锁
+ */
+public class RingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+    // 生产者下一个写入位置
+    private final AtomicLong tail = new AtomicLong();
+    // 消费者下一个读取位置，只有消费者线程修改
+    private final AtomicLong head = new AtomicLong();
+
+    public RingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("容量必须是2的幂:" + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * 队列满时返回false
+     */
+    public boolean offer(E e) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head.get() >= capacity) {
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        buffer.lazySet((int) t & mask, e);
+        return true;
+    }
+
+    /**
+     * 只能由消费者线程调用，队列空时返回null
+     */
+    public E poll() {
+        long h = head.get();
+        int index = (int) h & mask;
+        // 生产者已经抢到位置但还没写入时也视为空，下次再读
+        E e = buffer.get(index);
+        if (e == null) {
+            return null;
+        }
+        buffer.lazySet(index, null);
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    public long size() {
+        return Math.max(0, tail.get() - head.get());
+    }
+}
@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀准入控制：每张优惠券一个本地令牌桶，桶容量为剩余库存的SECKILL_ADMISSION_MULTIPLE倍，
+ * 每秒补满一次，超出的请求在本地直接拒绝，不再访问redis
+ * 令牌桶数量有上限，闲置的令牌桶会被回收，不存在的优惠券id不会让内存无限增长
+ */
+@Component
+public class SeckillAdmission {
+
+    // 按剩余库存重新计算桶容量的间隔
+    private static final long RESIZE_INTERVAL_MILLIS = 1000L;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final Cache<Long, TokenBucket> buckets = Caffeine.newBuilder()
+            .maximumSize(SystemConstants.SECKILL_LOCAL_CACHE_MAX_SIZE)
+            .expireAfterAccess(SystemConstants.SECKILL_ADMISSION_IDLE_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    public boolean tryAcquire(Long voucherId) {
+        TokenBucket bucket = buckets.get(voucherId, id -> new TokenBucket());
+        // 只有一个线程去redis读取剩余库存，其他线程使用旧的容量
+        if (bucket.shouldResize()) {
+            bucket.resize(loadRemainingStock(voucherId) * SystemConstants.SECKILL_ADMISSION_MULTIPLE);
+        }
+        return bucket.tryAcquire();
+    }
+
+    /**
+     * 读取redis中的剩余库存，兼容分片库存
+     */
+    private long loadRemainingStock(Long voucherId) {
+        String shards = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + voucherId);
+        if (shards == null) {
+            String stock = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId);
+            return StrUtil.isBlank(stock) ? 0 : Math.max(0, Long.parseLong(stock));
+        }
+        int n = Integer.parseInt(shards);
+        List<String> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + ":" + i + "}");
+        }
+        long total = 0;
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (stocks != null) {
+            for (String stock : stocks) {
+                total += StrUtil.isBlank(stock) ? 0 : Math.max(0, Long.parseLong(stock));
+            }
+        }
+        return total;
+    }
+
+    private static class TokenBucket {
+        private final AtomicLong nextResizeTime = new AtomicLong();
+        // 容量未知时(-1)直接放行
+        private long capacity = -1;
+        private double tokens;
+        private long lastRefillTime;
+
+        private boolean shouldResize() {
+            long now = System.currentTimeMillis();
+            long next = nextResizeTime.get();
+            return now >= next && nextResizeTime.compareAndSet(next, now + RESIZE_INTERVAL_MILLIS);
+        }
+
+        private synchronized void resize(long newCapacity) {
+            if (capacity < 0) {
+                tokens = newCapacity;
+                lastRefillTime = System.nanoTime();
+            }
+            capacity = newCapacity;
+            tokens = Math.min(tokens, capacity);
+        }
+
+        private synchronized boolean tryAcquire() {
+            // 容量未知，或者已经售罄(容量为0)时放行，由售罄标记和lua脚本返回库存不足
+            if (capacity <= 0) {
+                return true;
+            }
+            // 按流逝的时间补充令牌，每秒补满一桶
+            long now = System.nanoTime();
+            tokens = Math.min(capacity,
+                    tokens + (double) (now - lastRefillTime) * capacity / TimeUnit.SECONDS.toNanos(1));
+            lastRefillTime = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀时间窗口的本地缓存，明显未开始或已结束的请求不再访问redis
+ * 最终以lua脚本中的校验为准(使用redis服务器时间)，这里只做提前拒绝：
+ * 应用节点的时钟可能与redis不一致，只拒绝超出窗口边界skew-millis以上的请求，边界附近的请求交给lua脚本判断
+ */
+@Component
+public class SeckillWindowCache {
+
+    public static final int IN_WINDOW = 0;
+    public static final int NOT_STARTED = 4;
+    public static final int ENDED = 5;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 允许的应用节点与redis之间的时钟偏差(ms)
+    @Value("${hmdp.seckill.window-skew-millis:1000}")
+    private long skewMillis;
+
+    // voucherId -> {begin, end}，加载1分钟后重新读取redis，数量有上限
+    private final Cache<Long, long[]> windows = Caffeine.newBuilder()
+            .maximumSize(SystemConstants.SECKILL_LOCAL_CACHE_MAX_SIZE)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    public int check(Long voucherId, long now) {
+        long[] window = windows.get(voucherId, this::load);
+        if (now + skewMillis < window[0]) {
+            return NOT_STARTED;
+        }
+        if (now - skewMillis > window[1]) {
+            return ENDED;
+        }
+        return IN_WINDOW;
+    }
+
+    private long[] load(Long voucherId) {
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(RedisConstants.SECKILL_WINDOW_KEY + voucherId, Arrays.asList("begin", "end"));
+        long begin = values.get(0) == null ? Long.MIN_VALUE : Long.parseLong(values.get(0).toString());
+        long end = values.get(1) == null ? Long.MAX_VALUE : Long.parseLong(values.get(1).toString());
+        return new long[]{begin, end};
+    }
+}
@@ -0,0 +1,178 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地生成id，不依赖redis，hmdp.id.worker=snowflake 时替代RedisIdWorker
+ * id结构：时间戳(32bit，秒) | 机器id(10bit) | 序列号(22bit)，与RedisIdWorker同样按时间戳排序
+ * 注意：两种生成器的低32位含义不同，集群内不能混用
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id.worker", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdWorker {
+
+    private static final int WORKER_ID_BITS = 10;
+    private static final int SEQUENCE_BITS = 22;
+    private static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    // 允许容忍的时钟回拨秒数，回拨期间沿用上一次的时间戳
+    private static final long MAX_BACKWARD_SECONDS = 5L;
+
+    private static final String WORKER_ID_KEY = "id:worker:";
+    private static final long WORKER_ID_TTL = 10L;
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    private static final ScheduledExecutorService WORKER_ID_RENEW_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 配置了机器id时直接使用，否则启动时从redis租用
+    @Value("${hmdp.id.worker-id:-1}")
+    private long workerId;
+
+    private long lastTimestamp = -1L;
+    private long sequence = 0L;
+
+    // 机器id是否从redis租用，配置了机器id时不检查租约
+    private boolean leased;
+    // 租约的本地截止时间(System.nanoTime)，从发起续期的时刻开始计算，超过后拒绝生成id
+    private volatile long leaseDeadline;
+
+    @PostConstruct
+    private void init() {
+        if (workerId >= 0) {
+            if (workerId > MAX_WORKER_ID) {
+                throw new IllegalStateException("机器id超出范围:" + workerId);
+            }
+            return;
+        }
+        long begin = System.nanoTime();
+        workerId = leaseWorkerId();
+        leased = true;
+        leaseDeadline = begin + TimeUnit.MINUTES.toNanos(WORKER_ID_TTL);
+        // 定期续期，节点存活期间机器id不会被其他节点占用
+        WORKER_ID_RENEW_EXECUTOR.scheduleAtFixedRate(this::renew,
+                WORKER_ID_TTL / 3, WORKER_ID_TTL / 3, TimeUnit.MINUTES);
+        log.info("租用机器id:{}", workerId);
+    }
+
+    /**
+     * 比较租约的值之后再续期，租约已经被其他节点占用时重新租用一个机器id
+     * redis不可用时不延长截止时间，超过截止时间后nextId拒绝生成id
+     */
+    private void renew() {
+        long begin = System.nanoTime();
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(WORKER_ID_KEY + workerId),
+                    NODE_ID, String.valueOf(TimeUnit.MINUTES.toMillis(WORKER_ID_TTL)));
+            if (renewed != null && renewed == 1L) {
+                leaseDeadline = begin + TimeUnit.MINUTES.toNanos(WORKER_ID_TTL);
+                return;
+            }
+            // 租约已经过期并被其他节点占用，立即停止使用旧的机器id
+            log.error("机器id{}的租约已失效，重新租用", workerId);
+            leaseDeadline = 0L;
+            long id = leaseWorkerId();
+            synchronized (this) {
+                workerId = id;
+                leaseDeadline = begin + TimeUnit.MINUTES.toNanos(WORKER_ID_TTL);
+            }
+            log.info("重新租用机器id:{}", id);
+        } catch (Exception e) {
+            log.error("机器id续期失败", e);
+        }
+    }
+
+    private long leaseWorkerId() {
+        for (long id = 0; id <= MAX_WORKER_ID; id++) {
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(WORKER_ID_KEY + id, NODE_ID, WORKER_ID_TTL, TimeUnit.MINUTES);
+            if (BooleanUtil.isTrue(success)) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("没有可用的机器id");
+    }
+
+    @Override
+    public synchronized long nextId(String keyPrefix) {
+        // 0.租约过期后机器id可能已经被其他节点使用
+        if (leased && System.nanoTime() - leaseDeadline > 0) {
+            throw new IllegalStateException("机器id" + workerId + "的租约已失效，拒绝生成id");
+        }
+
+        // 1.生成时间戳
+        long timestamp = currentSecond();
+
+        // 2.时钟回拨：小幅回拨沿用上一次的时间戳，超过阈值直接拒绝
+        if (timestamp < lastTimestamp) {
+            if (lastTimestamp - timestamp > MAX_BACKWARD_SECONDS) {
+                throw new IllegalStateException("时钟回拨" + (lastTimestamp - timestamp) + "秒，拒绝生成id");
+            }
+            timestamp = lastTimestamp;
+        }
+
+        // 3.同一秒内序列号自增，用完则等待下一秒
+        if (timestamp == lastTimestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                timestamp = waitNextSecond(lastTimestamp);
+            }
+        } else {
+            sequence = 0L;
+        }
+        lastTimestamp = timestamp;
+
+        // 4.拼接
+        return timestamp << 32 | workerId << SEQUENCE_BITS | sequence;
+    }
+
+    private long waitNextSecond(long lastTimestamp) {
+        long timestamp = currentSecond();
+        while (timestamp <= lastTimestamp) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            timestamp = currentSecond();
+        }
+        return timestamp;
+    }
+
+    private long currentSecond() {
+        // 与RedisIdWorker的时间戳计算方式保持一致，保证两种id的排序兼容
+        return LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - RedisIdWorker.BEGIN_TIMESTAMP;
+    }
+}
@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地售罄标记，售罄的优惠券不再执行lua脚本，直接返回库存不足
+ * 标记通过redis的发布订阅同步到其他节点，消息格式为 "1:voucherId"(售罄) / "0:voucherId"(重置)
+ * 标记在SECKILL_SOLD_OUT_TTL秒后过期，由下一次lua脚本的结果重新确认：
+ * 补充库存的重置消息与正在进行的售罄标记先后到达时，错误的标记最多保留一个有效期
+ */
+@Component
+@Slf4j
+public class SoldOutRegistry implements MessageListener {
+
+    private final Cache<Long, Boolean> soldOutVouchers = Caffeine.newBuilder()
+            .maximumSize(SystemConstants.SECKILL_SOLD_OUT_MAX_SIZE)
+            .expireAfterWrite(SystemConstants.SECKILL_SOLD_OUT_TTL, TimeUnit.SECONDS)
+            .build();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    public boolean isSoldOut(Long voucherId) {
+        return soldOutVouchers.getIfPresent(voucherId) != null;
+    }
+
+    public void markSoldOut(Long voucherId) {
+        // 只有本节点第一次标记(或者上次的标记已经过期)时才广播
+        if (soldOutVouchers.asMap().putIfAbsent(voucherId, Boolean.TRUE) == null) {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, "1:" + voucherId);
+        }
+    }
+
+    /**
+     * 补充库存后调用，清除所有节点上的售罄标记
+     * 在事务中调用时等到事务提交之后再清除，回滚时不清除
+     */
+    public void reset(Long voucherId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            doReset(voucherId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                doReset(voucherId);
+            }
+        });
+    }
+
+    private void doReset(Long voucherId) {
+        soldOutVouchers.invalidate(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, "0:" + voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String[] parts = body.split(":");
+        if (parts.length != 2) {
+            log.error("售罄消息格式错误:{}", body);
+            return;
+        }
+        Long voucherId = Long.valueOf(parts[1]);
+        if ("1".equals(parts[0])) {
+            soldOutVouchers.put(voucherId, Boolean.TRUE);
+        } else {
+            soldOutVouchers.invalidate(voucherId);
+        }
+    }
+}
@@ -4,6 +4,48 @@ public class SystemConstants {
     public static final String IMAGE_UPLOAD_DIR = "D:\\lesson\\nginx-1.18.0\\html\\hmdp\\imgs\\";
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final String SECKILL_VOUCHER_SAVE_QUEUE = "order.seckill.queue";
+    // 多次重试仍然保存失败的订单，需要人工处理
+    public static final String SECKILL_VOUCHER_SAVE_DLQ = "order.seckill.dlq";
+    // 保存失败的订单重新投递的次数，消息头中记录已经重试的次数
+    public static final int SECKILL_ORDER_MAX_RETRY = 3;
+    public static final String SECKILL_ORDER_RETRY_HEADER = "x-order-retry";
+    // 批量消费秒杀订单：每批最多条数 / 等待凑批的最长时间(ms)
+    public static final int SECKILL_ORDER_BATCH_SIZE = 200;
+    public static final long SECKILL_ORDER_BATCH_TIMEOUT = 50L;
+    // 本地订单流水线每个分区的队列容量，必须是2的幂
+    public static final int SECKILL_ORDER_PARTITION_CAPACITY = 1 << 16;
+    // 每秒准入的请求数为剩余库存的倍数
+    public static final int SECKILL_ADMISSION_MULTIPLE = 3;
+    // 本地令牌桶、时间窗口缓存最多保存的优惠券数量，令牌桶闲置多久(min)后回收
+    public static final long SECKILL_LOCAL_CACHE_MAX_SIZE = 10000L;
+    public static final long SECKILL_ADMISSION_IDLE_MINUTES = 10L;
+    // 本地售罄标记的有效期(s)，过期后重新执行lua脚本确认库存，防止补充库存时与售罄标记竞争而一直拒绝
+    public static final long SECKILL_SOLD_OUT_TTL = 3L;
+    public static final long SECKILL_SOLD_OUT_MAX_SIZE = 10000L;
+    // 排队下单线程池的队列容量
+    public static final int SECKILL_TICKET_QUEUE_SIZE = 10000;
+    // 布隆过滤器的预计元素个数 / 误判率 / 启动时每次扫描的id数量
+    public static final long BLOOM_EXPECTED_INSERTIONS = 1_000_000L;
+    public static final double BLOOM_FPP = 0.01;
+    public static final int BLOOM_SCAN_BATCH = 1000;
+    // 热点key探测：时间窗口(ms) / 每个窗口的访问次数阈值 / 最多保留的热点数 / 采样率(1/n)
+    public static final long HOT_KEY_WINDOW_MILLIS = 1000L;
+    public static final long HOT_KEY_THRESHOLD = 500L;
+    public static final int HOT_KEY_TOP_K = 100;
+    public static final int HOT_KEY_SAMPLE_RATE = 4;
+    // 热点key本地副本的过期时间(s)
+    public static final long HOT_KEY_LOCAL_TTL = 5L;
+    // 延迟双删中第二次删除的延迟(ms)，需要大于一次读数据库并回写缓存的耗时
+    public static final long CACHE_DOUBLE_DELETE_DELAY = 500L;
+    // 启动预热时每个pipeline写入的条数
+    public static final int CACHE_WARMUP_BATCH = 500;
+    // 商户类型快照检查redis版本号的间隔(s)，兜底丢失的pub/sub消息
+    public static final long SHOP_TYPE_VERSION_CHECK_SECONDS = 30L;
+    // 只缓存前几页的商户id列表 / 缓存搜索结果的名称最大长度
+    public static final int CACHE_SHOP_PAGE_MAX = 10;
+    public static final int CACHE_SHOP_PAGE_NAME_MAX_LENGTH = 20;
+    // 附近商户的搜索半径(m)
+    public static final double SHOP_GEO_RADIUS = 5000;
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
 
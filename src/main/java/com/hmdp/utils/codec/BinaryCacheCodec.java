@@ -0,0 +1,138 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.utils.RedisData;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 紧凑的二进制编码，只支持注册了BinarySchema的类型，其他类型仍然使用json
+ * 格式: MAGIC(1) + 标志位(1) + 类型(1) + 版本(1) + [逻辑过期时间] + 字段
+ */
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    // json的首字节只可能是可见字符，用不可见字符区分二进制数据
+    static final byte MAGIC = (byte) 0xB7;
+    private static final int FLAG_EXPIRE = 1;
+    // MAGIC + 标志位 + 类型 + 版本
+    private static final int HEADER_LENGTH = 4;
+
+    private final Map<Class<?>, BinarySchema<?>> schemasByType = new HashMap<>();
+    private final Map<Integer, BinarySchema<?>> schemasByTag = new HashMap<>();
+
+    @Resource
+    private JsonCacheCodec jsonCacheCodec;
+
+    public BinaryCacheCodec() {
+        register(new BinarySchemas.ShopSchema());
+        register(new BinarySchemas.ShopTypeSchema());
+        register(new BinarySchemas.VoucherSchema());
+    }
+
+    private void register(BinarySchema<?> schema) {
+        schemasByType.put(schema.type(), schema);
+        schemasByTag.put(schema.tag(), schema);
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        BinarySchema<?> schema = schemasByType.get(value.getClass());
+        if (schema == null) {
+            return jsonCacheCodec.encode(value);
+        }
+        BinaryOutput out = new BinaryOutput();
+        writeHeader(out, 0, schema);
+        writeBody(out, schema, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (!canDecode(bytes)) {
+            return jsonCacheCodec.decode(bytes, type);
+        }
+        BinaryInput in = open(bytes);
+        int flags = in.readByte();
+        BinarySchema<?> schema = readSchema(in);
+        int version = in.readByte();
+        if ((flags & FLAG_EXPIRE) != 0) {
+            in.readRawDateTime();
+        }
+        return type.cast(schema.read(in, version));
+    }
+
+    @Override
+    public byte[] encodeWithExpire(RedisData redisData) {
+        Object data = redisData.getData();
+        BinarySchema<?> schema = data == null ? null : schemasByType.get(data.getClass());
+        if (schema == null) {
+            return jsonCacheCodec.encodeWithExpire(redisData);
+        }
+        BinaryOutput out = new BinaryOutput();
+        writeHeader(out, FLAG_EXPIRE, schema);
+        out.writeRawDateTime(redisData.getExpireTime());
+        writeBody(out, schema, data);
+        return out.toByteArray();
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        if (!canDecode(bytes)) {
+            return jsonCacheCodec.decodeWithExpire(bytes, type);
+        }
+        BinaryInput in = open(bytes);
+        int flags = in.readByte();
+        if ((flags & FLAG_EXPIRE) == 0) {
+            throw new IllegalStateException("缓存数据不包含逻辑过期时间");
+        }
+        BinarySchema<?> schema = readSchema(in);
+        int version = in.readByte();
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(in.readRawDateTime());
+        redisData.setData(type.cast(schema.read(in, version)));
+        return redisData;
+    }
+
+    private static void writeHeader(BinaryOutput out, int flags, BinarySchema<?> schema) {
+        out.writeByte(MAGIC);
+        out.writeByte(flags);
+        out.writeByte(schema.tag());
+        out.writeByte(schema.version());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void writeBody(BinaryOutput out, BinarySchema<T> schema, Object value) {
+        schema.write((T) value, out);
+    }
+
+    private static BinaryInput open(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH) {
+            throw new IllegalStateException("缓存数据头不完整，长度:" + bytes.length);
+        }
+        BinaryInput in = new BinaryInput(bytes);
+        in.readByte();
+        return in;
+    }
+
+    private BinarySchema<?> readSchema(BinaryInput in) {
+        int tag = in.readByte();
+        BinarySchema<?> schema = schemasByTag.get(tag);
+        if (schema == null) {
+            throw new IllegalStateException("未知的缓存数据类型:" + tag);
+        }
+        return schema;
+    }
+}
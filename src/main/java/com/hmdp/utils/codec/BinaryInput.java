@@ -0,0 +1,89 @@
+package com.hmdp.utils.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * 与BinaryOutput对应的读取工具，readMask之后按字段顺序读取，
+ * 位图中为空的字段直接返回null
+ */
+public class BinaryInput {
+
+    private final byte[] buf;
+    private int pos;
+    private long mask;
+    private int field;
+
+    public BinaryInput(byte[] buf) {
+        this.buf = buf;
+    }
+
+    public void readMask() {
+        mask = readVarLong();
+        field = 0;
+    }
+
+    public Long readLong() {
+        return nextPresent() ? readRawLong() : null;
+    }
+
+    public Integer readInt() {
+        return nextPresent() ? (int) readRawLong() : null;
+    }
+
+    public Double readDouble() {
+        if (!nextPresent()) {
+            return null;
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (buf[pos++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String readString() {
+        if (!nextPresent()) {
+            return null;
+        }
+        int len = (int) readVarLong();
+        String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+        pos += len;
+        return s;
+    }
+
+    public LocalDateTime readDateTime() {
+        return nextPresent() ? readRawDateTime() : null;
+    }
+
+    LocalDateTime readRawDateTime() {
+        long seconds = readRawLong();
+        int nanos = (int) readVarLong();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+    int readByte() {
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean nextPresent() {
+        return (mask & (1L << field++)) != 0;
+    }
+
+    private long readRawLong() {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private long readVarLong() {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf[pos++];
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+    }
+}
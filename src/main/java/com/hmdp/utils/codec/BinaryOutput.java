@@ -0,0 +1,99 @@
+package com.hmdp.utils.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * 二进制写入工具，整数使用zigzag变长编码
+ * 每个对象先写入字段非空的位图，之后只写入非空字段，null不占空间
+ */
+public class BinaryOutput {
+
+    private byte[] buf = new byte[128];
+    private int pos;
+
+    /**
+     * 写入字段位图，参数顺序就是字段顺序，最多64个字段
+     */
+    public void writeMask(Object... fields) {
+        long mask = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                mask |= 1L << i;
+            }
+        }
+        writeVarLong(mask);
+    }
+
+    public void writeLong(Long v) {
+        if (v != null) {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+    }
+
+    public void writeInt(Integer v) {
+        if (v != null) {
+            writeLong(v.longValue());
+        }
+    }
+
+    public void writeDouble(Double v) {
+        if (v != null) {
+            long bits = Double.doubleToRawLongBits(v);
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (bits >>> i);
+            }
+        }
+    }
+
+    public void writeString(String v) {
+        if (v != null) {
+            byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+    }
+
+    public void writeDateTime(LocalDateTime v) {
+        if (v != null) {
+            writeRawDateTime(v);
+        }
+    }
+
+    /**
+     * LocalDateTime不带时区，按UTC换算成秒数 + 纳秒
+     */
+    void writeRawDateTime(LocalDateTime v) {
+        writeLong(v.toEpochSecond(ZoneOffset.UTC));
+        writeVarLong(v.getNano());
+    }
+
+    void writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    private void writeVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+        }
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+}
@@ -0,0 +1,24 @@
+package com.hmdp.utils.codec;
+
+/**
+ * 某个类型的二进制结构，新增或调整字段时提升version，
+ * read需要能够读取所有旧版本写入的数据
+ */
+public interface BinarySchema<T> {
+
+    Class<T> type();
+
+    /**
+     * 写入数据头中的类型标识，不能重复
+     */
+    int tag();
+
+    /**
+     * 当前写入的版本
+     */
+    int version();
+
+    void write(T value, BinaryOutput out);
+
+    T read(BinaryInput in, int version);
+}
@@ -0,0 +1,176 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+
+/**
+ * 各个缓存实体的二进制结构，字段只能在末尾追加，追加后提升版本号
+ */
+public class BinarySchemas {
+
+    private BinarySchemas() {
+    }
+
+    public static class ShopSchema implements BinarySchema<Shop> {
+        @Override
+        public Class<Shop> type() {
+            return Shop.class;
+        }
+
+        @Override
+        public int tag() {
+            return 1;
+        }
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        // distance是查询附近商户时计算的，不写入缓存
+        @Override
+        public void write(Shop shop, BinaryOutput out) {
+            out.writeMask(shop.getId(), shop.getName(), shop.getTypeId(), shop.getImages(), shop.getArea(),
+                    shop.getAddress(), shop.getX(), shop.getY(), shop.getAvgPrice(), shop.getSold(),
+                    shop.getComments(), shop.getScore(), shop.getOpenHours(), shop.getCreateTime(),
+                    shop.getUpdateTime());
+            out.writeLong(shop.getId());
+            out.writeString(shop.getName());
+            out.writeLong(shop.getTypeId());
+            out.writeString(shop.getImages());
+            out.writeString(shop.getArea());
+            out.writeString(shop.getAddress());
+            out.writeDouble(shop.getX());
+            out.writeDouble(shop.getY());
+            out.writeLong(shop.getAvgPrice());
+            out.writeInt(shop.getSold());
+            out.writeInt(shop.getComments());
+            out.writeInt(shop.getScore());
+            out.writeString(shop.getOpenHours());
+            out.writeDateTime(shop.getCreateTime());
+            out.writeDateTime(shop.getUpdateTime());
+        }
+
+        @Override
+        public Shop read(BinaryInput in, int version) {
+            in.readMask();
+            return new Shop()
+                    .setId(in.readLong())
+                    .setName(in.readString())
+                    .setTypeId(in.readLong())
+                    .setImages(in.readString())
+                    .setArea(in.readString())
+                    .setAddress(in.readString())
+                    .setX(in.readDouble())
+                    .setY(in.readDouble())
+                    .setAvgPrice(in.readLong())
+                    .setSold(in.readInt())
+                    .setComments(in.readInt())
+                    .setScore(in.readInt())
+                    .setOpenHours(in.readString())
+                    .setCreateTime(in.readDateTime())
+                    .setUpdateTime(in.readDateTime());
+        }
+    }
+
+    public static class ShopTypeSchema implements BinarySchema<ShopType> {
+        @Override
+        public Class<ShopType> type() {
+            return ShopType.class;
+        }
+
+        @Override
+        public int tag() {
+            return 2;
+        }
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(ShopType shopType, BinaryOutput out) {
+            out.writeMask(shopType.getId(), shopType.getName(), shopType.getIcon(), shopType.getSort(),
+                    shopType.getCreateTime(), shopType.getUpdateTime());
+            out.writeLong(shopType.getId());
+            out.writeString(shopType.getName());
+            out.writeString(shopType.getIcon());
+            out.writeInt(shopType.getSort());
+            out.writeDateTime(shopType.getCreateTime());
+            out.writeDateTime(shopType.getUpdateTime());
+        }
+
+        @Override
+        public ShopType read(BinaryInput in, int version) {
+            in.readMask();
+            return new ShopType()
+                    .setId(in.readLong())
+                    .setName(in.readString())
+                    .setIcon(in.readString())
+                    .setSort(in.readInt())
+                    .setCreateTime(in.readDateTime())
+                    .setUpdateTime(in.readDateTime());
+        }
+    }
+
+    public static class VoucherSchema implements BinarySchema<Voucher> {
+        @Override
+        public Class<Voucher> type() {
+            return Voucher.class;
+        }
+
+        @Override
+        public int tag() {
+            return 3;
+        }
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public void write(Voucher voucher, BinaryOutput out) {
+            out.writeMask(voucher.getId(), voucher.getShopId(), voucher.getTitle(), voucher.getSubTitle(),
+                    voucher.getRules(), voucher.getPayValue(), voucher.getActualValue(), voucher.getType(),
+                    voucher.getStatus(), voucher.getStock(), voucher.getBeginTime(), voucher.getEndTime(),
+                    voucher.getCreateTime(), voucher.getUpdateTime());
+            out.writeLong(voucher.getId());
+            out.writeLong(voucher.getShopId());
+            out.writeString(voucher.getTitle());
+            out.writeString(voucher.getSubTitle());
+            out.writeString(voucher.getRules());
+            out.writeLong(voucher.getPayValue());
+            out.writeLong(voucher.getActualValue());
+            out.writeInt(voucher.getType());
+            out.writeInt(voucher.getStatus());
+            out.writeInt(voucher.getStock());
+            out.writeDateTime(voucher.getBeginTime());
+            out.writeDateTime(voucher.getEndTime());
+            out.writeDateTime(voucher.getCreateTime());
+            out.writeDateTime(voucher.getUpdateTime());
+        }
+
+        @Override
+        public Voucher read(BinaryInput in, int version) {
+            in.readMask();
+            return new Voucher()
+                    .setId(in.readLong())
+                    .setShopId(in.readLong())
+                    .setTitle(in.readString())
+                    .setSubTitle(in.readString())
+                    .setRules(in.readString())
+                    .setPayValue(in.readLong())
+                    .setActualValue(in.readLong())
+                    .setType(in.readInt())
+                    .setStatus(in.readInt())
+                    .setStock(in.readInt())
+                    .setBeginTime(in.readDateTime())
+                    .setEndTime(in.readDateTime())
+                    .setCreateTime(in.readDateTime())
+                    .setUpdateTime(in.readDateTime());
+        }
+    }
+}
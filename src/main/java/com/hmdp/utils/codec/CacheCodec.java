@@ -0,0 +1,34 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.utils.RedisData;
+
+/**
+ * 缓存值的编解码器，CacheClient通过hmdp.cache.codec选择写入时使用的实现，
+ * 读取时根据数据的首字节选择能解码的实现，切换编码方式后旧数据依然可以读取
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码器名称，对应配置项hmdp.cache.codec
+     */
+    String name();
+
+    /**
+     * 判断数据是否是当前编码器写入的
+     */
+    boolean canDecode(byte[] bytes);
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码逻辑过期的数据
+     */
+    byte[] encodeWithExpire(RedisData redisData);
+
+    /**
+     * 解码逻辑过期的数据，返回的RedisData中data已经是type类型
+     */
+    RedisData decodeWithExpire(byte[] bytes, Class<?> type);
+}
@@ -0,0 +1,81 @@
+package com.hmdp.utils.codec;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.json.JSON;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.utils.RedisData;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 原有的json编码方式
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        // 对象、数组、字符串、数字、true/false/null都是合法的json，跳过开头的空白
+        for (byte b : bytes) {
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                continue;
+            }
+            return b == '{' || b == '[' || b == '"' || b == '-' || (b >= '0' && b <= '9')
+                    || b == 't' || b == 'f' || b == 'n';
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        // JSONUtil会把数字、布尔值当作bean转成{}，字符串也不加引号，单独处理
+        String json;
+        if (value == null) {
+            json = "null";
+        } else if (value instanceof CharSequence) {
+            json = JSONUtil.quote(value.toString());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json = value.toString();
+        } else {
+            json = JSONUtil.toJsonStr(value);
+        }
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        String json = new String(bytes, StandardCharsets.UTF_8).trim();
+        if (json.startsWith("{")) {
+            return JSONUtil.toBean(json, type);
+        }
+        // JSONUtil只能直接解析对象，其他类型的值放进数组中解析
+        Object value = JSONUtil.parseArray("[" + json + "]").get(0);
+        if (JSONUtil.isNull(value)) {
+            return null;
+        }
+        if (value instanceof JSON) {
+            return ((JSON) value).toBean(type);
+        }
+        return Convert.convert(type, value);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(RedisData redisData) {
+        return encode(redisData);
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        // redis中保存的数据为, 过期时间 + obj的json字符串，需要再解析一次data
+        RedisData redisData = decode(bytes, RedisData.class);
+        redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+        return redisData;
+    }
+}
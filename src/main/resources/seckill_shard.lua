@@ -0,0 +1,37 @@
+-- 分片库存：用户所在的主分片
+-- KEYS[1] 主分片库存key, KEYS[2] 主分片下单用户set, KEYS[3] 时间窗口，三者通过hash tag落在同一个slot
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local windowKey = KEYS[3]
+-- 1.1 用户id
+local userId = ARGV[1]
+-- 1.2 当前时间(毫秒)，使用redis服务器的时间，不依赖各个应用节点的时钟
+-- redis 5之前脚本中调用TIME之后不能再写入，需要先切换为按命令复制
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 1.秒杀时间窗口，未配置时间窗口的优惠券不校验
+local window = redis.call('hmget', windowKey, 'begin', 'end')
+if (window[1] and now < tonumber(window[1])) then
+    return 4
+end
+if (window[2] and now > tonumber(window[2])) then
+    return 5
+end
+
+-- 2.一人一单
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+
+-- 3.主分片有库存，直接扣减
+if (tonumber(redis.call('get', stockKey) or 0) > 0) then
+    redis.call('incrby', stockKey, -1)
+    redis.call('sadd', orderKey, userId)
+    return 0
+end
+
+-- 4.主分片库存不足，先占住一人一单的资格，再由调用方去相邻分片扣减
+redis.call('sadd', orderKey, userId)
+return 3
@@ -0,0 +1,9 @@
+-- 分片库存：主分片售罄后在相邻分片扣减
+-- KEYS[1] 相邻分片库存key
+local stockKey = KEYS[1]
+
+if (tonumber(redis.call('get', stockKey) or 0) <= 0) then
+    return 1
+end
+redis.call('incrby', stockKey, -1)
+return 0
@@ -0,0 +1,42 @@
+-- 1.参数
+-- 1.1 优惠卷id
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+-- 1.2 订单id
+local orderId = ARGV[3]
+-- 1.3 当前时间(毫秒)，使用redis服务器的时间，不依赖各个应用节点的时钟
+-- redis 5之前脚本中调用TIME之后不能再写入，需要先切换为按命令复制
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local stockKey = "seckill:stock:" .. voucherId
+local orderKey = "seckill:order" .. voucherId
+local streamKey = "stream.orders"
+local windowKey = "seckill:window:" .. voucherId
+-- 1.秒杀时间窗口，未配置时间窗口的优惠券不校验
+local window = redis.call('hmget', windowKey, 'begin', 'end')
+if (window[1] and now < tonumber(window[1])) then
+    return 4
+end
+if (window[2] and now > tonumber(window[2])) then
+    return 5
+end
+
+-- 2.一人一单/库存
+if (tonumber(redis.call('get', stockKey) or 0) <= 0) then
+    return 1
+end
+
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+
+-- 3.减少库存
+redis.call('incrby', stockKey, -1)
+-- 4.set中添加userId
+redis.call('sadd', orderKey, userId)
+-- 5.订单写入stream，与扣减库存在同一个原子操作中完成
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+
+return 0
@@ -0,0 +1,12 @@
+-- 机器id的key
+local key = KEYS[1]
+-- 当前节点标识
+local nodeId = ARGV[1]
+-- 续期时长(ms)
+local ttl = ARGV[2]
+
+-- 只有租约仍然属于当前节点时才续期
+if (redis.call('get', key) == nodeId) then
+    return redis.call('pexpire', key, ttl)
+end
+return 0
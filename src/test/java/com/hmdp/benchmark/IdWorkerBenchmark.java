@@ -0,0 +1,77 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比三种id生成方式的吞吐量：每次INCR / 号段模式 / 本地snowflake
+ * 需要本地启动redis(localhost:6379)，运行main方法即可
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdWorkerBenchmark {
+
+    private LettuceConnectionFactory connectionFactory;
+    private RedisIdWorker incrIdWorker;
+    private RedisIdWorker segmentIdWorker;
+    private SnowflakeIdWorker snowflakeIdWorker;
+
+    @Setup
+    public void setup() {
+        connectionFactory = new LettuceConnectionFactory("localhost", 6379);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+
+        incrIdWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(incrIdWorker, "stringRedisTemplate", stringRedisTemplate);
+
+        segmentIdWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(segmentIdWorker, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(segmentIdWorker, "segmentEnabled", true);
+
+        snowflakeIdWorker = new SnowflakeIdWorker();
+        ReflectionTestUtils.setField(snowflakeIdWorker, "workerId", 1L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public long redisIncr() {
+        return incrIdWorker.nextId("bench");
+    }
+
+    @Benchmark
+    public long redisSegment() {
+        return segmentIdWorker.nextId("bench");
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return snowflakeIdWorker.nextId("bench");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(IdWorkerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+    @Test
+    void sizing() {
+        // 100万个元素、1%误判率约需要958万位、7个哈希函数
+        BloomFilter filter = new BloomFilter(1_000_000, 0.01, false);
+        assertEquals(0, filter.getNumBits() % 64);
+        assertTrue(filter.getNumBits() >= 9_585_058L);
+        assertEquals(7, filter.getNumHashes());
+        assertNull(ReflectionTestUtils.getField(filter, "bits"));
+    }
+
+    @Test
+    void indexesAreStableAndInRange() {
+        BloomFilter filter = new BloomFilter(1000, 0.01, false);
+        long[] indexes = filter.indexes(-42L);
+        assertEquals(filter.getNumHashes(), indexes.length);
+        for (long index : indexes) {
+            assertTrue(index >= 0 && index < filter.getNumBits());
+        }
+        // 本地和redis使用同样的下标，同一个id的下标不能变化
+        assertEquals(indexes[0], new BloomFilter(1000, 0.01, true).indexes(-42L)[0]);
+    }
+
+    @Test
+    void noFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01, true);
+        for (long id = 1; id <= 10_000; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= 10_000; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+        assertEquals(10_000, filter.getInsertions());
+    }
+
+    @Test
+    void falsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01, true);
+        for (long id = 1; id <= 10_000; id++) {
+            filter.put(id);
+        }
+        int falsePositives = 0;
+        for (long id = 1_000_000; id < 1_100_000; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        // 期望1%，留出余量
+        assertTrue(falsePositives < 2000, "误判数:" + falsePositives);
+        double estimated = filter.estimatedFpp(filter.bitCount());
+        assertTrue(estimated > 0.005 && estimated < 0.02, "估算误判率:" + estimated);
+    }
+
+    @Test
+    void emptyFilter() {
+        BloomFilter filter = new BloomFilter(100, 0.01, true);
+        assertFalse(filter.mightContain(1L));
+        assertEquals(0, filter.bitCount());
+    }
+}
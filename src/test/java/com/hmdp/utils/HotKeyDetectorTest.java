@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotKeyDetectorTest {
+
+    private final HotKeyDetector detector = new HotKeyDetector();
+
+    @Test
+    void frequentKeyBecomesHot() {
+        record("cache:shop:1", 4 * SystemConstants.HOT_KEY_THRESHOLD);
+        record("cache:shop:2", 10);
+        assertFalse(detector.isHot("cache:shop:1"));
+
+        rotate();
+        assertTrue(detector.isHot("cache:shop:1"));
+        assertFalse(detector.isHot("cache:shop:2"));
+    }
+
+    @Test
+    void hotKeyDemotedOnlyBelowHalfThreshold() {
+        record("cache:shop:1", 4 * SystemConstants.HOT_KEY_THRESHOLD);
+        rotate();
+
+        // 访问量降到阈值和一半之间时保持热点
+        record("cache:shop:1", SystemConstants.HOT_KEY_THRESHOLD * 3 / 4);
+        rotate();
+        assertTrue(detector.isHot("cache:shop:1"));
+
+        // 降到一半以下时降级
+        record("cache:shop:1", SystemConstants.HOT_KEY_THRESHOLD / 8);
+        rotate();
+        assertFalse(detector.isHot("cache:shop:1"));
+    }
+
+    @Test
+    void topKOrderedByCount() {
+        int keys = SystemConstants.HOT_KEY_TOP_K + 20;
+        for (int i = 0; i < keys; i++) {
+            record("cache:shop:" + i, 2 * SystemConstants.HOT_KEY_THRESHOLD + i * 40L);
+        }
+        rotate();
+
+        List<Long> counts = new ArrayList<>(detector.hotKeys().values());
+        assertEquals(SystemConstants.HOT_KEY_TOP_K, counts.size());
+        for (int i = 1; i < counts.size(); i++) {
+            assertTrue(counts.get(i - 1) >= counts.get(i));
+        }
+        assertTrue(detector.isHot("cache:shop:" + (keys - 1)));
+        assertFalse(detector.isHot("cache:shop:0"));
+    }
+
+    private void record(String key, long times) {
+        for (long i = 0; i < times; i++) {
+            detector.record(key);
+        }
+    }
+
+    private void rotate() {
+        ReflectionTestUtils.invokeMethod(detector, "rotate");
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SeckillAdmissionTest {
+
+    private SeckillAdmission admission;
+    private ValueOperations<String, String> valueOperations;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+
+        admission = new SeckillAdmission();
+        ReflectionTestUtils.setField(admission, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    @Test
+    void admitsMultipleOfRemainingStock() {
+        when(valueOperations.get(RedisConstants.SECKILL_STOCK_KEY + 1)).thenReturn("2");
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (admission.tryAcquire(1L)) {
+                admitted++;
+            }
+        }
+        // 令牌每秒补满，测试期间最多多补充一个
+        int capacity = 2 * SystemConstants.SECKILL_ADMISSION_MULTIPLE;
+        assertTrue(admitted >= capacity && admitted <= capacity + 1, "admitted:" + admitted);
+    }
+
+    @Test
+    void shardedStockIsSummed() {
+        when(valueOperations.get(RedisConstants.SECKILL_SHARDS_KEY + 2)).thenReturn("2");
+        when(valueOperations.multiGet(anyList())).thenReturn(Arrays.asList("1", null));
+        for (int i = 0; i < SystemConstants.SECKILL_ADMISSION_MULTIPLE; i++) {
+            assertTrue(admission.tryAcquire(2L));
+        }
+        assertFalse(admission.tryAcquire(2L));
+    }
+
+    @Test
+    void soldOutVoucherIsNotThrottled() {
+        // 库存为0时放行，由lua脚本返回库存不足，而不是提示抢购人数过多
+        when(valueOperations.get(RedisConstants.SECKILL_STOCK_KEY + 3)).thenReturn("0");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(admission.tryAcquire(3L));
+        }
+    }
+
+    @Test
+    void unknownVoucherIsNotThrottled() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(admission.tryAcquire(4L));
+        }
+    }
+}
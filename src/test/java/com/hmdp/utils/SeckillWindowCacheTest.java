@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SeckillWindowCacheTest {
+
+    private static final long BEGIN = 1_700_000_000_000L;
+    private static final long END = BEGIN + 3_600_000L;
+
+    private SeckillWindowCache windowCache;
+    private HashOperations<String, Object, Object> hashOperations;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        hashOperations = mock(HashOperations.class);
+        when(stringRedisTemplate.<Object, Object>opsForHash()).thenReturn(hashOperations);
+        when(hashOperations.multiGet(anyString(), any()))
+                .thenReturn(Arrays.asList(String.valueOf(BEGIN), String.valueOf(END)));
+
+        windowCache = new SeckillWindowCache();
+        ReflectionTestUtils.setField(windowCache, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(windowCache, "skewMillis", 1000L);
+    }
+
+    @Test
+    void inWindow() {
+        assertEquals(SeckillWindowCache.IN_WINDOW, windowCache.check(1L, BEGIN + 10));
+        assertEquals(SeckillWindowCache.IN_WINDOW, windowCache.check(1L, END));
+    }
+
+    @Test
+    void boundariesWithinSkewAreLeftToLua() {
+        // 节点时钟可能与redis不一致，边界附近的请求不在本地拒绝
+        assertEquals(SeckillWindowCache.IN_WINDOW, windowCache.check(1L, BEGIN - 1000));
+        assertEquals(SeckillWindowCache.IN_WINDOW, windowCache.check(1L, END + 1000));
+    }
+
+    @Test
+    void clearlyOutsideWindow() {
+        assertEquals(SeckillWindowCache.NOT_STARTED, windowCache.check(1L, BEGIN - 1001));
+        assertEquals(SeckillWindowCache.ENDED, windowCache.check(1L, END + 1001));
+    }
+
+    @Test
+    void missingWindowNeverRejects() {
+        when(hashOperations.multiGet(anyString(), any())).thenReturn(Arrays.asList(null, null));
+        assertEquals(SeckillWindowCache.IN_WINDOW, windowCache.check(2L, 0L));
+        assertEquals(SeckillWindowCache.IN_WINDOW, windowCache.check(2L, Long.MAX_VALUE - 1000));
+    }
+
+    @Test
+    void windowLoadedOnce() {
+        windowCache.check(1L, BEGIN);
+        windowCache.check(1L, END);
+        verify(hashOperations, times(1)).multiGet(anyString(), any());
+    }
+}
@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    void concurrentCallsShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> leader = call("shop:1", () -> {
+            loads.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "value";
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // loader执行期间的请求都等待同一个结果
+        List<CompletableFuture<String>> followers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            CompletableFuture<String> follower = new CompletableFuture<>();
+            Thread thread = new Thread(() -> follower.complete(singleFlight.execute("shop:1", () -> {
+                loads.incrementAndGet();
+                return "other";
+            })));
+            thread.start();
+            followers.add(follower);
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            awaitParked(thread);
+        }
+        assertEquals(1, singleFlight.inFlight());
+
+        release.countDown();
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+        for (CompletableFuture<String> follower : followers) {
+            assertEquals("value", follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    void sequentialCallsLoadAgain() {
+        AtomicInteger loads = new AtomicInteger();
+        singleFlight.execute("k", loads::incrementAndGet);
+        singleFlight.execute("k", loads::incrementAndGet);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void differentKeysDoNotWait() {
+        assertEquals("a", singleFlight.execute("a", () -> singleFlight.execute("b", () -> "a")));
+    }
+
+    @Test
+    void exceptionPropagatesToWaiters() throws Exception {
+        IllegalStateException failure = new IllegalStateException("db down");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> leader = call("k", () -> {
+            started.countDown();
+            await(release);
+            throw failure;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Throwable> follower = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                singleFlight.execute("k", () -> "other");
+                follower.complete(null);
+            } catch (RuntimeException e) {
+                follower.complete(e);
+            }
+        });
+        thread.start();
+        awaitParked(thread);
+
+        release.countDown();
+        assertSame(failure, assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause());
+        assertSame(failure, follower.get(5, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    private CompletableFuture<String> call(String key, Supplier<String> loader) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        new Thread(() -> {
+            try {
+                result.complete(singleFlight.execute(key, loader));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }).start();
+        return result;
+    }
+
+    /**
+     * 等待线程阻塞在正在执行的future上
+     */
+    private static void awaitParked(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
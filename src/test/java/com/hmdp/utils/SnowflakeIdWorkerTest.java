@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnowflakeIdWorkerTest {
+
+    private static SnowflakeIdWorker worker(long workerId) {
+        SnowflakeIdWorker worker = new SnowflakeIdWorker();
+        ReflectionTestUtils.setField(worker, "workerId", workerId);
+        return worker;
+    }
+
+    @Test
+    void bitLayout() {
+        long before = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - RedisIdWorker.BEGIN_TIMESTAMP;
+        long id = worker(1023).nextId("order");
+        long after = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - RedisIdWorker.BEGIN_TIMESTAMP;
+
+        long timestamp = id >>> 32;
+        assertTrue(timestamp >= before && timestamp <= after);
+        assertEquals(1023, (id >>> 22) & 0x3FF);
+        assertEquals(0, id & 0x3FFFFF);
+    }
+
+    @Test
+    void uniqueAndIncreasing() {
+        SnowflakeIdWorker worker = worker(7);
+        Set<Long> ids = new HashSet<>();
+        long last = 0;
+        for (int i = 0; i < 100_000; i++) {
+            long id = worker.nextId("order");
+            assertTrue(id > last);
+            assertTrue(ids.add(id));
+            last = id;
+        }
+    }
+
+    @Test
+    void workerIdsDoNotCollide() {
+        SnowflakeIdWorker a = worker(1);
+        SnowflakeIdWorker b = worker(2);
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(ids.add(a.nextId("order")));
+            assertTrue(ids.add(b.nextId("order")));
+        }
+    }
+
+    @Test
+    void smallClockBackwardReusesLastTimestamp() {
+        SnowflakeIdWorker worker = worker(3);
+        long first = worker.nextId("order");
+        // 模拟时钟回拨3秒：lastTimestamp比当前时间大
+        long lastTimestamp = (first >>> 32) + 3;
+        ReflectionTestUtils.setField(worker, "lastTimestamp", lastTimestamp);
+        long id = worker.nextId("order");
+        assertEquals(lastTimestamp, id >>> 32);
+        assertTrue(id > first);
+    }
+
+    @Test
+    void largeClockBackwardRejected() {
+        SnowflakeIdWorker worker = worker(3);
+        long first = worker.nextId("order");
+        ReflectionTestUtils.setField(worker, "lastTimestamp", (first >>> 32) + 60);
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    @Test
+    void expiredLeaseRejected() {
+        SnowflakeIdWorker worker = worker(3);
+        ReflectionTestUtils.setField(worker, "leased", true);
+        ReflectionTestUtils.setField(worker, "leaseDeadline", System.nanoTime() - 1);
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+}
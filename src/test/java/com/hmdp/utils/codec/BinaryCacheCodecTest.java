@@ -0,0 +1,133 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCacheCodecTest {
+
+    private BinaryCacheCodec codec;
+
+    @BeforeEach
+    void setUp() {
+        codec = new BinaryCacheCodec();
+        ReflectionTestUtils.setField(codec, "jsonCacheCodec", new JsonCacheCodec());
+    }
+
+    @Test
+    void encodeDecode() {
+        Shop shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setX(-120.149192)
+                .setAvgPrice(-80L)
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        byte[] bytes = codec.encode(shop);
+        assertEquals(BinaryCacheCodec.MAGIC, bytes[0]);
+        assertTrue(codec.canDecode(bytes));
+        assertEquals(shop, codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void encodeDecodeAllNullFields() {
+        assertEquals(new ShopType(), codec.decode(codec.encode(new ShopType()), ShopType.class));
+    }
+
+    @Test
+    void encodeDecodeWithExpire() {
+        Voucher voucher = new Voucher().setId(10L).setShopId(1L).setPayValue(8000L).setStock(-1);
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.of(2022, 1, 26, 10, 9, 17, 500_000_000));
+        redisData.setData(voucher);
+
+        RedisData decoded = codec.decodeWithExpire(codec.encodeWithExpire(redisData), Voucher.class);
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        assertEquals(voucher, decoded.getData());
+    }
+
+    @Test
+    void expireTimeBeforeEpoch() {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.of(1960, 6, 1, 12, 0, 0, 1));
+        redisData.setData(new Shop().setId(1L));
+
+        RedisData decoded = codec.decodeWithExpire(codec.encodeWithExpire(redisData), Shop.class);
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+    }
+
+    @Test
+    void decodeSkipsExpireTime() {
+        // 带逻辑过期时间的数据也可以直接读取data
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.of(2022, 1, 1, 0, 0));
+        redisData.setData(new Shop().setId(7L).setName("a"));
+        assertEquals(redisData.getData(), codec.decode(codec.encodeWithExpire(redisData), Shop.class));
+    }
+
+    @Test
+    void unregisteredTypeFallsBackToJson() {
+        RedisData value = new RedisData();
+        value.setExpireTime(LocalDateTime.of(2022, 1, 1, 0, 0));
+        byte[] bytes = codec.encode(value);
+        assertFalse(codec.canDecode(bytes));
+        assertEquals(value.getExpireTime(), codec.decode(bytes, RedisData.class).getExpireTime());
+    }
+
+    @Test
+    void decodeJsonWrittenByOldCodec() {
+        Shop shop = new Shop().setId(1L).setName("103茶餐厅").setScore(-1);
+        byte[] json = new JsonCacheCodec().encode(shop);
+        assertFalse(codec.canDecode(json));
+        assertEquals(shop, codec.decode(json, Shop.class));
+    }
+
+    @Test
+    void unknownTag() {
+        byte[] bytes = codec.encode(new Shop().setId(1L));
+        bytes[2] = 99;
+        assertThrows(IllegalStateException.class, () -> codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void missingExpireFlag() {
+        byte[] bytes = codec.encode(new Shop().setId(1L));
+        assertThrows(IllegalStateException.class, () -> codec.decodeWithExpire(bytes, Shop.class));
+    }
+
+    @Test
+    void truncatedHeader() {
+        byte[] bytes = Arrays.copyOf(codec.encode(new Shop().setId(1L)), 3);
+        assertThrows(IllegalStateException.class, () -> codec.decode(bytes, Shop.class));
+        assertThrows(IllegalStateException.class, () -> codec.decodeWithExpire(bytes, Shop.class));
+    }
+
+    @Test
+    void jsonFirstByteIsNotMagic() {
+        assertFalse(codec.canDecode("{}".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(codec.canDecode("[]".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(codec.canDecode("\"\"".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void nullDataFallsBackToJson() {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.of(2022, 1, 1, 0, 0));
+        byte[] bytes = codec.encodeWithExpire(redisData);
+        assertFalse(codec.canDecode(bytes));
+        assertNull(codec.decodeWithExpire(bytes, Shop.class).getData());
+    }
+}
@@ -0,0 +1,133 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BinarySchemasTest {
+
+    @Test
+    void shopRoundTrip() {
+        Shop shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/a.jpg,https://qcloud.dpfile.com/pc/b.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19, 123456789));
+        assertEquals(shop, roundTrip(new BinarySchemas.ShopSchema(), shop));
+    }
+
+    @Test
+    void shopAllNullFields() {
+        Shop shop = new Shop();
+        assertEquals(shop, roundTrip(new BinarySchemas.ShopSchema(), shop));
+    }
+
+    @Test
+    void shopSomeNullFields() {
+        // 空字段不占位置，后面的字段不能错位
+        Shop shop = new Shop()
+                .setId(2L)
+                .setTypeId(3L)
+                .setY(30.5)
+                .setScore(45)
+                .setUpdateTime(LocalDateTime.of(2022, 1, 1, 0, 0));
+        assertEquals(shop, roundTrip(new BinarySchemas.ShopSchema(), shop));
+    }
+
+    @Test
+    void shopNegativeAndExtremeValues() {
+        Shop shop = new Shop()
+                .setId(Long.MAX_VALUE)
+                .setName("")
+                .setTypeId(Long.MIN_VALUE)
+                .setX(-122.4194)
+                .setY(-0.0)
+                .setAvgPrice(-1L)
+                .setSold(Integer.MIN_VALUE)
+                .setComments(-1)
+                .setScore(Integer.MAX_VALUE)
+                .setCreateTime(LocalDateTime.of(1900, 1, 1, 0, 0, 0, 1))
+                .setUpdateTime(LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999999999));
+        assertEquals(shop, roundTrip(new BinarySchemas.ShopSchema(), shop));
+    }
+
+    @Test
+    void shopDistanceNotWritten() {
+        Shop shop = new Shop().setId(1L).setDistance(12.5);
+        assertEquals(new Shop().setId(1L), roundTrip(new BinarySchemas.ShopSchema(), shop));
+    }
+
+    @Test
+    void shopTypeRoundTrip() {
+        ShopType shopType = new ShopType()
+                .setId(1L)
+                .setName("美食")
+                .setIcon("/types/ms.png")
+                .setSort(1)
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 20, 17, 47))
+                .setUpdateTime(LocalDateTime.of(2021, 12, 23, 11, 24, 31));
+        assertEquals(shopType, roundTrip(new BinarySchemas.ShopTypeSchema(), shopType));
+    }
+
+    @Test
+    void shopTypeNullAndNegativeFields() {
+        ShopType shopType = new ShopType()
+                .setId(-5L)
+                .setSort(-1);
+        assertEquals(shopType, roundTrip(new BinarySchemas.ShopTypeSchema(), shopType));
+    }
+
+    @Test
+    void voucherRoundTrip() {
+        Voucher voucher = new Voucher()
+                .setId(10L)
+                .setShopId(1L)
+                .setTitle("100元代金券")
+                .setSubTitle("周一至周日均可使用")
+                .setRules("全场通用\\n无需预约\\n可无限叠加")
+                .setPayValue(8000L)
+                .setActualValue(10000L)
+                .setType(1)
+                .setStatus(1)
+                .setStock(100)
+                .setBeginTime(LocalDateTime.of(2022, 1, 26, 10, 9, 17))
+                .setEndTime(LocalDateTime.of(2022, 1, 26, 23, 9, 4))
+                .setCreateTime(LocalDateTime.of(2022, 1, 4, 9, 42, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 4, 9, 43, 31));
+        assertEquals(voucher, roundTrip(new BinarySchemas.VoucherSchema(), voucher));
+    }
+
+    @Test
+    void voucherNullAndNegativeFields() {
+        Voucher voucher = new Voucher()
+                .setId(11L)
+                .setPayValue(-8000L)
+                .setActualValue(0L)
+                .setType(0)
+                .setStock(-3)
+                .setEndTime(LocalDateTime.of(1970, 1, 1, 0, 0));
+        assertEquals(voucher, roundTrip(new BinarySchemas.VoucherSchema(), voucher));
+    }
+
+    private static <T> T roundTrip(BinarySchema<T> schema, T value) {
+        BinaryOutput out = new BinaryOutput();
+        schema.write(value, out);
+        return schema.read(new BinaryInput(out.toByteArray()), schema.version());
+    }
+}
@@ -0,0 +1,95 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonCacheCodecTest {
+
+    private final JsonCacheCodec codec = new JsonCacheCodec();
+
+    @Test
+    void encodeDecodeObject() {
+        Shop shop = new Shop().setId(1L).setName("103茶餐厅").setScore(37);
+        byte[] bytes = codec.encode(shop);
+        assertTrue(codec.canDecode(bytes));
+        assertEquals(shop, codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void encodeDecodeWithExpire() {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.of(2022, 1, 26, 10, 9, 17));
+        redisData.setData(new Shop().setId(1L).setName("a"));
+
+        RedisData decoded = codec.decodeWithExpire(codec.encodeWithExpire(redisData), Shop.class);
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        assertEquals(redisData.getData(), decoded.getData());
+    }
+
+    @Test
+    void canDecodeAnyJsonValue() {
+        for (String json : new String[]{"{}", "[]", "\"\"", "0", "-1", "1.5", "true", "false", "null", " \n{}"}) {
+            assertTrue(codec.canDecode(bytes(json)), json);
+        }
+    }
+
+    @Test
+    void rejectsNonJson() {
+        assertFalse(codec.canDecode(new byte[]{BinaryCacheCodec.MAGIC, 1, 0}));
+        assertFalse(codec.canDecode(bytes("abc")));
+        assertFalse(codec.canDecode(bytes("   ")));
+    }
+
+    @Test
+    void encodeDecodeNumbers() {
+        assertArrayEquals(bytes("42"), codec.encode(42L));
+        assertEquals(42L, codec.decode(codec.encode(42L), Long.class));
+        assertEquals(Long.MAX_VALUE, codec.decode(codec.encode(Long.MAX_VALUE), Long.class));
+        assertEquals(-7, codec.decode(codec.encode(-7), Integer.class));
+        assertEquals(1.5, codec.decode(codec.encode(1.5), Double.class));
+    }
+
+    @Test
+    void encodeDecodeBooleans() {
+        assertArrayEquals(bytes("true"), codec.encode(true));
+        assertEquals(Boolean.TRUE, codec.decode(codec.encode(true), Boolean.class));
+        assertEquals(Boolean.FALSE, codec.decode(codec.encode(false), Boolean.class));
+    }
+
+    @Test
+    void encodeDecodeNull() {
+        assertArrayEquals(bytes("null"), codec.encode(null));
+        assertNull(codec.decode(bytes("null"), Shop.class));
+    }
+
+    @Test
+    void encodeDecodeString() {
+        String value = "a\"b\n中文";
+        byte[] bytes = codec.encode(value);
+        assertTrue(codec.canDecode(bytes));
+        assertEquals(value, codec.decode(bytes, String.class));
+    }
+
+    @Test
+    void decodeArray() {
+        Shop[] shops = codec.decode(bytes("[{\"id\":1,\"name\":\"a\"},{\"id\":2}]"), Shop[].class);
+        assertEquals(new Shop().setId(1L).setName("a"), shops[0]);
+        assertEquals(new Shop().setId(2L), shops[1]);
+        assertEquals(2, codec.decode(codec.encode(new long[]{1, 2}), List.class).size());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}